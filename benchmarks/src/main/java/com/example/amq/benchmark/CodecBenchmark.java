@@ -0,0 +1,117 @@
+package com.example.amq.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.amq.client.Broker;
+import com.example.amq.client.BrokerFactory;
+import com.example.amq.main.CodecRegistry;
+import com.example.amq.main.MessageDecoder;
+import com.example.amq.main.MessageEncoder;
+
+/**
+ * Cost of encoding a String into a message and decoding it back, with the
+ * codecs resolved through CodecRegistry the way Main does. Also measures
+ * resolving a codec by name, which must stay out of the per-message path.
+ *
+ * @author mshin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({ "100", "10240" })
+    public int payloadSize;
+
+    private EmbeddedBroker embeddedBroker;
+    private Broker broker;
+    private MessageEncoder encoder;
+    private MessageDecoder decoder;
+    private String payload;
+    private Message encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        embeddedBroker = new EmbeddedBroker();
+        embeddedBroker.start();
+        broker = BrokerFactory.newBrokerInstance(embeddedBroker.getUri());
+
+        encoder = CodecRegistry.loadEncoder(TextEncoder.class.getName());
+        decoder = CodecRegistry.loadDecoder(TextDecoder.class.getName());
+
+        StringBuilder builder = new StringBuilder(payloadSize);
+        for (int i = 0; i < payloadSize; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        payload = builder.toString();
+        encoded = encoder.encode(payload, broker);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        broker.close();
+        embeddedBroker.stop();
+    }
+
+    @Benchmark
+    public Message encode() throws JMSException {
+        return encoder.encode(payload, broker);
+    }
+
+    @Benchmark
+    public String decode() throws JMSException {
+        return decoder.decode(encoded);
+    }
+
+    @Benchmark
+    public MessageEncoder resolveEncoder() {
+        return CodecRegistry.loadEncoder(TextEncoder.class.getName());
+    }
+
+    /**
+     * Puts the String into a TextMessage as is
+     */
+    public static class TextEncoder implements MessageEncoder {
+
+        @Override
+        public Message encode(String message, Broker broker)
+                throws JMSException {
+            TextMessage textMessage = broker.createTextMessage();
+            textMessage.setText(message);
+            return textMessage;
+        }
+    }
+
+    /**
+     * Returns the text of a TextMessage as is
+     */
+    public static class TextDecoder implements MessageDecoder {
+
+        @Override
+        public String decode(Message message) throws JMSException {
+            return ((TextMessage) message).getText();
+        }
+    }
+}
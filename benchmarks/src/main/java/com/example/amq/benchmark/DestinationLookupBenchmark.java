@@ -0,0 +1,86 @@
+package com.example.amq.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Destination;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.amq.client.Broker;
+import com.example.amq.client.BrokerFactory;
+
+/**
+ * Cost of Broker.getDestination for a destination that is already
+ * registered, out of a registry holding destinationCount destinations.
+ * Runs with several threads to show contention on the registry.
+ *
+ * @author mshin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class DestinationLookupBenchmark {
+
+    @Param({ "1", "1000" })
+    public int destinationCount;
+
+    private EmbeddedBroker embeddedBroker;
+    private Broker broker;
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        embeddedBroker = new EmbeddedBroker();
+        embeddedBroker.start();
+        broker = BrokerFactory.newBrokerInstance(embeddedBroker.getUri());
+
+        names = new String[destinationCount];
+        for (int i = 0; i < destinationCount; i++) {
+            names[i] = "benchmark.lookup." + i;
+            broker.getDestination(names[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        broker.close();
+        embeddedBroker.stop();
+    }
+
+    @Benchmark
+    public Destination getDestination(ThreadIndex index) throws Exception {
+        return broker.getDestination(names[index.next(destinationCount)]);
+    }
+
+    /**
+     * Per thread position in the destination names
+     */
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+
+        private int index = 0;
+
+        int next(int count) {
+            index = (index + 1 == count ? 0 : index + 1);
+            return index;
+        }
+    }
+}
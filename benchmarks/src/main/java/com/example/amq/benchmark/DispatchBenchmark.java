@@ -0,0 +1,115 @@
+package com.example.amq.benchmark;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.amq.client.AdvancedBroker;
+import com.example.amq.client.Broker;
+import com.example.amq.client.BrokerFactory;
+import com.example.amq.client.MessageHandler;
+import com.example.amq.client.strategy.SimpleBrokerClientStrategy;
+
+/**
+ * Round trip of one message from send to handler. "strategy" delivers through
+ * Broker.getListeningConsumer, i.e. the dispatch executor of
+ * SimpleBrokerClientStrategy; "raw" uses a plain JMS MessageListener on the
+ * same connection. The difference is the dispatch overhead of the client.
+ *
+ * @author mshin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({ "strategy", "raw" })
+    public String listener;
+
+    private EmbeddedBroker embeddedBroker;
+    private Broker broker;
+    private Session listenerSession;
+    private MessageConsumer consumer;
+    private MessageProducer producer;
+    private TextMessage message;
+
+    private final Semaphore handled = new Semaphore(0);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        embeddedBroker = new EmbeddedBroker();
+        embeddedBroker.start();
+        broker = BrokerFactory.newBrokerInstance(
+                new SimpleBrokerClientStrategy(), embeddedBroker.getUri());
+
+        Destination queue = broker.getDestination("benchmark.dispatch."
+                + listener);
+        if ("raw".equals(listener)) {
+            listenerSession = ((AdvancedBroker) broker).getConnection()
+                    .createSession(false, Session.AUTO_ACKNOWLEDGE);
+            consumer = listenerSession.createConsumer(queue);
+            consumer.setMessageListener(new MessageListener() {
+
+                @Override
+                public void onMessage(Message message) {
+                    handled.release();
+                }
+            });
+        } else {
+            consumer = broker.getListeningConsumer(queue, new MessageHandler() {
+
+                @Override
+                public void handleMessage(Message message) {
+                    handled.release();
+                }
+            });
+        }
+
+        producer = broker.getProducer(queue);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        message = broker.createTextMessage();
+        message.setText("benchmark");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        consumer.close();
+        if (null != listenerSession) {
+            listenerSession.close();
+        }
+        broker.close();
+        embeddedBroker.stop();
+    }
+
+    @Benchmark
+    public void sendAndHandle() throws Exception {
+        producer.send(message);
+        handled.acquire();
+    }
+}
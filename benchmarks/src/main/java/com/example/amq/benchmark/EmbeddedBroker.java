@@ -0,0 +1,48 @@
+package com.example.amq.benchmark;
+
+import org.apache.activemq.broker.BrokerService;
+
+/**
+ * In-memory ActiveMQ broker reachable over vm://, so the benchmarks need no
+ * network or external service. Nothing is persisted and JMX is off.
+ *
+ * @author mshin
+ *
+ */
+public class EmbeddedBroker {
+
+    // Default values
+    private static final String DEFAULT_BROKER_NAME = "benchmark";
+
+    private final BrokerService brokerService;
+
+    public EmbeddedBroker() {
+        this(DEFAULT_BROKER_NAME);
+    }
+
+    public EmbeddedBroker(String brokerName) {
+        brokerService = new BrokerService();
+        brokerService.setBrokerName(brokerName);
+        brokerService.setPersistent(false);
+        brokerService.setUseJmx(false);
+        brokerService.setAdvisorySupport(false);
+    }
+
+    public void start() throws Exception {
+        brokerService.start();
+        brokerService.waitUntilStarted();
+    }
+
+    public void stop() throws Exception {
+        brokerService.stop();
+        brokerService.waitUntilStopped();
+    }
+
+    /**
+     * Returns the uri of the running broker. create=false makes a client fail
+     * instead of silently starting a second broker.
+     */
+    public String getUri() {
+        return "vm://" + brokerService.getBrokerName() + "?create=false";
+    }
+}
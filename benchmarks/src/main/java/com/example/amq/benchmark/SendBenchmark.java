@@ -0,0 +1,86 @@
+package com.example.amq.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.MessageProducer;
+import javax.jms.TextMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.amq.client.AdvancedBroker;
+import com.example.amq.client.Broker;
+import com.example.amq.client.BrokerFactory;
+
+/**
+ * Send throughput through Broker.getProducer per delivery mode. Messages go
+ * to a topic without subscribers, so the broker drops them and producer flow
+ * control never kicks in. Persistent sends are synchronous and include the
+ * round trip to the broker.
+ *
+ * @author mshin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBenchmark {
+
+    @Param({ "NON_PERSISTENT", "PERSISTENT" })
+    public String deliveryMode;
+
+    @Param({ "100", "10240" })
+    public int payloadSize;
+
+    private EmbeddedBroker embeddedBroker;
+    private Broker broker;
+    private MessageProducer producer;
+    private TextMessage message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        embeddedBroker = new EmbeddedBroker();
+        embeddedBroker.start();
+        broker = BrokerFactory.newBrokerInstance(embeddedBroker.getUri());
+
+        Destination topic = ((AdvancedBroker) broker).getSession()
+                .createTopic("benchmark.send");
+        producer = broker.getProducer(topic);
+        producer.setDeliveryMode("PERSISTENT".equals(deliveryMode)
+                ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
+
+        StringBuilder payload = new StringBuilder(payloadSize);
+        for (int i = 0; i < payloadSize; i++) {
+            payload.append('x');
+        }
+        message = broker.createTextMessage();
+        message.setText(payload.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        broker.close();
+        embeddedBroker.stop();
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        producer.send(message);
+    }
+}
@@ -1,8 +1,7 @@
 package com.example.amq.client;
 
 import java.io.InputStream;
-import java.util.Collection;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.jms.Connection;
 import javax.jms.Destination;
@@ -14,6 +13,8 @@ import javax.jms.Session;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.BlobMessage;
 
+import com.example.amq.client.metrics.ClientMetrics;
+
 /**
  * Interface for accessing ActiveMQ internals and messages 
  */
@@ -32,27 +33,32 @@ public interface AMQBroker extends AdvancedBroker {
     /**
      * Returns all connections to the broker
      */
-    Collection<Entry<String, Connection>> getConnections();
+    ConcurrentMap<String, Connection> getConnections();
 
     /**
      * Returns all session established with the broker
      */
-    Collection<Entry<String, Session>> getSessions();
+    ConcurrentMap<String, Session> getSessions();
 
     /**
      * Returns all message consumers on the broker
      */
-    Collection<Entry<String, MessageConsumer>> getMessageConsumers();
+    ConcurrentMap<String, MessageConsumer> getMessageConsumers();
 
     /**
      * Returns all message producers on the broker
      */
-    Collection<Entry<String, MessageProducer>> getMessageProducers();
+    ConcurrentMap<String, MessageProducer> getMessageProducers();
+
+    /**
+     * Returns all destinations on the broker, keyed by name
+     */
+    ConcurrentMap<String, Destination> getDestinations();
 
     /**
-     * Returns all destinations on the broker
+     * Returns the instrumentation of this broker, also published over JMX
      */
-    Collection<Entry<String, Destination>> getDestinations();
+    ClientMetrics getMetrics();
 
     /**
      * Returns an active connection with the broker
@@ -84,20 +90,20 @@ public interface AMQBroker extends AdvancedBroker {
      */
     BlobMessage createBlobMessage(InputStream inputStream) throws JMSException;
 
-    // void setConnections(Collection<Entry<String, Connection>> connections);
-    // void setSessions(Collection<Entry<String, Session>> sessions);
-    // void setMessageConsumers(Collection<Entry<String, MessageConsumer>>
+    // void setConnections(ConcurrentMap<String, Connection> connections);
+    // void setSessions(ConcurrentMap<String, Session> sessions);
+    // void setMessageConsumers(ConcurrentMap<String, MessageConsumer>
     // messageConsumers);
-    // void setMessageProducers(Collection<Entry<String, MessageProducer>>
+    // void setMessageProducers(ConcurrentMap<String, MessageProducer>
     // messageProducers);
-    // void setDestinations(Collection<Destination> destinations);
+    // void setDestinations(ConcurrentMap<String, Destination> destinations);
 
     /**
      * Single setter for all JMS collections 
      */
-    void setCollections(Collection<Entry<String, Connection>> connections,
-            Collection<Entry<String, Session>> sessions,
-            Collection<Entry<String, MessageConsumer>> consumers,
-            Collection<Entry<String, MessageProducer>> producers,
-            Collection<Entry<String, Destination>> destinations);
+    void setCollections(ConcurrentMap<String, Connection> connections,
+            ConcurrentMap<String, Session> sessions,
+            ConcurrentMap<String, MessageConsumer> consumers,
+            ConcurrentMap<String, MessageProducer> producers,
+            ConcurrentMap<String, Destination> destinations);
 }
@@ -1,14 +1,22 @@
 package com.example.amq.client;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map.Entry;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
 import javax.jms.ObjectMessage;
@@ -17,10 +25,14 @@ import javax.jms.StreamMessage;
 import javax.jms.TextMessage;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQPrefetchPolicy;
+import org.apache.activemq.AsyncCallback;
 import org.apache.activemq.BlobMessage;
 import org.apache.activemq.Closeable;
 
+import com.example.amq.client.metrics.ClientMetrics;
 import com.example.amq.client.strategy.BrokerClientStrategy;
+import com.example.amq.exception.AMQBrokerException;
 
 /**
  * Implementation of the 3 Broker interfaces that delegates to a BrokerClientStrategy
@@ -30,11 +42,25 @@ public class AMQBrokerImpl implements AMQBroker, AdvancedBroker, Broker,
 
     private BrokerClientStrategy strategy;
     private ActiveMQConnectionFactory connectionFactory;
-    private Collection<Entry<String, Connection>> connections;
-    private Collection<Entry<String, Session>> sessions;
-    private Collection<Entry<String, MessageConsumer>> consumers;
-    private Collection<Entry<String, MessageProducer>> producers;
-    private Collection<Entry<String, Destination>> destinations;
+    private ConcurrentMap<String, Connection> connections;
+    private ConcurrentMap<String, Session> sessions;
+    private ConcurrentMap<String, MessageConsumer> consumers;
+    private ConcurrentMap<String, MessageProducer> producers;
+    private ConcurrentMap<String, Destination> destinations;
+    private ClientMetrics metrics;
+
+    /**
+     * Producer without a destination shared by all fan-outs, created on first
+     * use and closed with the broker
+     */
+    private AsyncProducer fanOutProducer;
+
+    // ActiveMQ's default virtual topic naming
+    private static final String VIRTUAL_TOPIC_PREFIX = "VirtualTopic.";
+    private static final String VIRTUAL_TOPIC_CONSUMER_PREFIX = "Consumer.";
+
+    // Default values
+    private static final int DEFAULT_FAN_OUT_IN_FLIGHT_MESSAGES = 1000;
 
     // TODO need to implement CLI and test
 
@@ -43,12 +69,29 @@ public class AMQBrokerImpl implements AMQBroker, AdvancedBroker, Broker,
      */
     AMQBrokerImpl(BrokerClientStrategy strategy, String username,
             String password, String brokerUri) throws JMSException {
+        this(strategy, username, password, brokerUri, null);
+    }
+
+    /*
+     * package level visibility. A null prefetchPolicy keeps the ActiveMQ
+     * defaults, or the jms.prefetchPolicy options of the uri.
+     */
+    AMQBrokerImpl(BrokerClientStrategy strategy, String username,
+            String password, String brokerUri,
+            ActiveMQPrefetchPolicy prefetchPolicy) throws JMSException {
         this.strategy = strategy;
         strategy.setBroker(this);
 
         this.connectionFactory = this.createConnectionFactory(username,
                 password, brokerUri);
+        // connections copy the policy when created, so set it before init
+        if (null != prefetchPolicy) {
+            this.connectionFactory.setPrefetchPolicy(prefetchPolicy);
+        }
         this.strategy.init(connectionFactory);
+
+        this.metrics = new ClientMetrics(this, strategy.getMessageDispatcher());
+        this.metrics.register();
     }
 
     /**
@@ -71,22 +114,239 @@ public class AMQBrokerImpl implements AMQBroker, AdvancedBroker, Broker,
         return strategy.getDestination(queue);
     }
 
+    /**
+     * Uses the consumer.prefetchSize destination option, so the same queue
+     * can be consumed with different prefetch sizes in one process.
+     */
+    @Override
+    public Destination getDestination(String queue, int prefetchSize)
+            throws JMSException {
+        if (prefetchSize < 0) {
+            throw new IllegalArgumentException("Invalid prefetch size: "
+                    + prefetchSize);
+        }
+        return strategy.getDestination(queue
+                + (queue.indexOf('?') < 0 ? "?" : "&")
+                + "consumer.prefetchSize=" + prefetchSize);
+    }
+
+    @Override
+    public Destination getTopic(String topic) throws JMSException {
+        return strategy.getTopic(topic);
+    }
+
+    @Override
+    public Destination getVirtualTopic(String virtualTopic)
+            throws JMSException {
+        return strategy.getTopic(virtualTopicName(virtualTopic));
+    }
+
+    @Override
+    public Destination getVirtualTopicQueue(String virtualTopic,
+            String consumerGroup) throws JMSException {
+        if (null == consumerGroup || consumerGroup.isEmpty()
+                || consumerGroup.indexOf('.') >= 0) {
+            throw new IllegalArgumentException("Invalid consumer group: "
+                    + consumerGroup);
+        }
+        return strategy.getDestination(VIRTUAL_TOPIC_CONSUMER_PREFIX
+                + consumerGroup + "." + virtualTopicName(virtualTopic));
+    }
+
+    private static String virtualTopicName(String virtualTopic) {
+        return (virtualTopic.startsWith(VIRTUAL_TOPIC_PREFIX) ? virtualTopic
+                : VIRTUAL_TOPIC_PREFIX + virtualTopic);
+    }
+
+    @Override
+    public Destination getCompositeDestination(Collection<String> queues)
+            throws JMSException {
+        StringBuilder name = new StringBuilder();
+        for (String queue : queues) {
+            if (name.length() > 0) {
+                name.append(',');
+            }
+            name.append(queue);
+        }
+        return strategy.getDestination(name.toString());
+    }
+
     @Override
     public MessageProducer getProducer(Destination destination)
             throws JMSException {
-        return strategy.getProducer(destination);
+        return metrics.meter(strategy.getProducer(destination));
+    }
+
+    @Override
+    public BatchingProducer getBatchingProducer(Destination destination,
+            int maxBatchSize, long maxLingerMillis) throws JMSException {
+        return strategy.getBatchingProducer(destination, maxBatchSize,
+                maxLingerMillis);
+    }
+
+    @Override
+    public AsyncProducer getAsyncProducer(Destination destination,
+            int maxInFlightMessages, long maxInFlightBytes)
+            throws JMSException {
+        return strategy.getAsyncProducer(destination, maxInFlightMessages,
+                maxInFlightBytes);
+    }
+
+    @Override
+    public List<BatchResult> sendBatch(Destination destination,
+            Iterable<Message> messages, int batchSize) throws JMSException {
+        final List<BatchResult> results = new ArrayList<BatchResult>();
+        BatchingProducer producer = strategy.getBatchingProducer(destination,
+                batchSize, 0);
+        producer.setBatchListener(new BatchResultListener() {
+
+            @Override
+            public void onBatch(BatchResult result) {
+                results.add(result);
+            }
+        });
+        try {
+            for (Message message : messages) {
+                producer.send(message);
+            }
+        } finally {
+            producer.close();
+        }
+        return results;
+    }
+
+    @Override
+    public List<FanOutResult> fanOut(Collection<String> queues,
+            Message message, long timeoutMillis) throws JMSException {
+        List<FanOutResult> results = new ArrayList<FanOutResult>(
+                queues.size());
+        if (queues.isEmpty()) {
+            return results;
+        }
+
+        CountDownLatch done = new CountDownLatch(1);
+        PendingSend send = new PendingSend(done);
+        try {
+            getFanOutProducer().send(getCompositeDestination(queues),
+                    message, send);
+        } catch (JMSException e) {
+            send.onException(e);
+        }
+        await(done, timeoutMillis);
+
+        for (String queue : queues) {
+            results.add(send.toResult(queue, timeoutMillis));
+        }
+        return results;
+    }
+
+    /**
+     * Sends through the shared fan-out producer, so every send is on the wire
+     * before the first acknowledgement is waited for
+     */
+    @Override
+    public List<FanOutResult> fanOut(Map<String, ? extends Message> messages,
+            long timeoutMillis) throws JMSException {
+        List<FanOutResult> results = new ArrayList<FanOutResult>(
+                messages.size());
+        if (messages.isEmpty()) {
+            return results;
+        }
+
+        CountDownLatch done = new CountDownLatch(messages.size());
+        Map<String, PendingSend> sends = new LinkedHashMap<String, PendingSend>();
+        AsyncProducer producer = getFanOutProducer();
+        for (Map.Entry<String, ? extends Message> entry : messages.entrySet()) {
+            PendingSend send = new PendingSend(done);
+            sends.put(entry.getKey(), send);
+            try {
+                producer.send(strategy.getDestination(entry.getKey()),
+                        entry.getValue(), send);
+            } catch (JMSException e) {
+                send.onException(e);
+            }
+        }
+        await(done, timeoutMillis);
+
+        for (Map.Entry<String, PendingSend> entry : sends.entrySet()) {
+            results.add(entry.getValue().toResult(entry.getKey(),
+                    timeoutMillis));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the fan-out producer, so fan-outs do not create a session each
+     */
+    private synchronized AsyncProducer getFanOutProducer() throws JMSException {
+        if (null == fanOutProducer) {
+            fanOutProducer = strategy.getAsyncProducer(null,
+                    DEFAULT_FAN_OUT_IN_FLIGHT_MESSAGES, 0);
+        }
+        return fanOutProducer;
+    }
+
+    private static void await(CountDownLatch done, long timeoutMillis)
+            throws AMQBrokerException {
+        try {
+            done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AMQBrokerException("Interrupted while waiting for fan-out");
+        }
     }
 
     @Override
     public MessageConsumer getConsumer(Destination destination)
             throws JMSException {
-        return strategy.getConsumer(destination);
+        return metrics.meter(strategy.getConsumer(destination), destination);
     }
 
     @Override
     public MessageConsumer getListeningConsumer(Destination destination,
             MessageHandler messageHandler) throws JMSException {
-        return strategy.getListeningConsumer(destination, messageHandler);
+        // only the handler, the dispatcher needs the raw consumer to pause it
+        return strategy.getListeningConsumer(destination,
+                metrics.meter(messageHandler, destination));
+    }
+
+    @Override
+    public List<MessageConsumer> getListeningConsumers(
+            Destination destination, MessageHandler messageHandler,
+            int consumers) throws JMSException {
+        MessageHandler meteredHandler = metrics.meter(messageHandler,
+                destination);
+        List<MessageConsumer> result = new ArrayList<MessageConsumer>(
+                consumers);
+        for (int i = 0; i < consumers; i++) {
+            result.add(strategy.listen(
+                    strategy.getSessionConsumer(destination), meteredHandler));
+        }
+        return result;
+    }
+
+    @Override
+    public MessageConsumer getDurableSubscriber(Destination topic,
+            String subscriptionName) throws JMSException {
+        return metrics.meter(
+                strategy.getDurableSubscriber(topic, subscriptionName), topic);
+    }
+
+    @Override
+    public MessageConsumer getListeningDurableSubscriber(Destination topic,
+            String subscriptionName, MessageHandler messageHandler)
+            throws JMSException {
+        return strategy.listen(
+                strategy.getDurableSubscriber(topic, subscriptionName),
+                metrics.meter(messageHandler, topic));
+    }
+
+    @Override
+    public BatchConsumer getBatchConsumer(Destination destination,
+            BatchMessageHandler batchHandler, int maxBatchSize,
+            long maxLingerMillis, boolean transacted) throws JMSException {
+        return strategy.getBatchConsumer(destination, batchHandler,
+                maxBatchSize, maxLingerMillis, transacted);
     }
 
     @Override
@@ -105,11 +365,26 @@ public class AMQBrokerImpl implements AMQBroker, AdvancedBroker, Broker,
         return strategy.getSession();
     }
 
+    @Override
+    public BlobConsumer getBlobConsumer(Destination destination,
+            BlobSink sink, int maxConcurrentDownloads, int bufferSize)
+            throws JMSException {
+        return strategy.getBlobConsumer(destination, sink,
+                maxConcurrentDownloads, bufferSize);
+    }
+
     @Override
     public BytesMessage createBytesMessage() throws JMSException {
         return strategy.createBytesMessage();
     }
 
+    @Override
+    public BytesMessage createBytesMessage(ByteBuffer body) throws JMSException {
+        BytesMessage message = strategy.createBytesMessage();
+        BytesMessages.write(message, body);
+        return message;
+    }
+
     @Override
     public ObjectMessage createObjectMessage() throws JMSException {
         return strategy.createObjectMessage();
@@ -147,44 +422,68 @@ public class AMQBrokerImpl implements AMQBroker, AdvancedBroker, Broker,
     }
 
     @Override
-    public Collection<Entry<String, Connection>> getConnections() {
+    public ConcurrentMap<String, Connection> getConnections() {
         return this.connections;
     }
 
     @Override
-    public Collection<Entry<String, Session>> getSessions() {
+    public ConcurrentMap<String, Session> getSessions() {
         return this.sessions;
     }
 
     @Override
-    public Collection<Entry<String, MessageConsumer>> getMessageConsumers() {
+    public ConcurrentMap<String, MessageConsumer> getMessageConsumers() {
         return this.consumers;
     }
 
     @Override
-    public Collection<Entry<String, MessageProducer>> getMessageProducers() {
+    public ConcurrentMap<String, MessageProducer> getMessageProducers() {
         return this.producers;
     }
 
     @Override
-    public Collection<Entry<String, Destination>> getDestinations() {
+    public ConcurrentMap<String, Destination> getDestinations() {
         return this.destinations;
     }
 
+    @Override
+    public ClientMetrics getMetrics() {
+        return this.metrics;
+    }
+
     @Override
     public void close() throws JMSException {
-        strategy.close();
-        // TODO
+        try {
+            closeFanOutProducer();
+        } finally {
+            closeStrategy();
+        }
+    }
+
+    private synchronized void closeFanOutProducer() throws JMSException {
+        if (null != fanOutProducer) {
+            AsyncProducer producer = fanOutProducer;
+            fanOutProducer = null;
+            producer.close();
+        }
+    }
+
+    private void closeStrategy() throws JMSException {
+        try {
+            strategy.close();
+        } finally {
+            metrics.unregister();
+        }
 
     }
 
     @Override
     public void setCollections(
-            Collection<Entry<String, Connection>> connections,
-            Collection<Entry<String, Session>> sessions,
-            Collection<Entry<String, MessageConsumer>> consumers,
-            Collection<Entry<String, MessageProducer>> producers,
-            Collection<Entry<String, Destination>> destinations) {
+            ConcurrentMap<String, Connection> connections,
+            ConcurrentMap<String, Session> sessions,
+            ConcurrentMap<String, MessageConsumer> consumers,
+            ConcurrentMap<String, MessageProducer> producers,
+            ConcurrentMap<String, Destination> destinations) {
         this.connections = connections;
         this.sessions = sessions;
         this.consumers = consumers;
@@ -192,4 +491,43 @@ public class AMQBrokerImpl implements AMQBroker, AdvancedBroker, Broker,
         this.destinations = destinations;
     }
 
+
+    /**
+     * Completion of one fan-out send
+     */
+    private static class PendingSend implements AsyncCallback {
+
+        private final CountDownLatch done;
+        private final long start = System.nanoTime();
+        private volatile long end = 0;
+        private volatile JMSException exception;
+
+        PendingSend(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void onSuccess() {
+            end = System.nanoTime();
+            done.countDown();
+        }
+
+        @Override
+        public void onException(JMSException exception) {
+            this.exception = exception;
+            end = System.nanoTime();
+            done.countDown();
+        }
+
+        FanOutResult toResult(String destination, long timeoutMillis) {
+            long completed = end;
+            if (0 == completed) {
+                return new FanOutResult(destination, System.nanoTime() - start,
+                        new AMQBrokerException("Send to " + destination
+                                + " not acknowledged within " + timeoutMillis
+                                + "ms"));
+            }
+            return new FanOutResult(destination, completed - start, exception);
+        }
+    }
 }
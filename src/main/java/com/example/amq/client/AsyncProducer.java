@@ -0,0 +1,323 @@
+package com.example.amq.client;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.AsyncCallback;
+import org.apache.activemq.Closeable;
+import org.apache.activemq.command.ActiveMQMessage;
+
+import com.example.amq.exception.AMQBrokerException;
+
+/**
+ * Producer that sends without waiting for the broker and reports the outcome
+ * of every send through a callback or a Future. Unlike useAsyncSend, failures
+ * are not lost: each send completes when the broker acknowledges it.
+ *
+ * The number of messages and bytes that are sent but not yet acknowledged is
+ * capped; send() blocks while the cap is reached.
+ *
+ * @author mshin
+ *
+ */
+public class AsyncProducer implements Closeable {
+
+    private final Session session;
+    private final ActiveMQMessageProducer producer;
+    private final int maxInFlightMessages;
+    private final long maxInFlightBytes;
+
+    private final Semaphore messagePermits;
+    private final Semaphore bytePermits;
+
+    private final Object outstandingLock = new Object();
+    private int outstandingMessages = 0;
+    private long outstandingBytes = 0;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates a producer on the session. maxInFlightBytes <= 0 disables the
+     * byte cap. Closing the producer closes the session.
+     */
+    public AsyncProducer(Session session, ActiveMQMessageProducer producer,
+            int maxInFlightMessages, long maxInFlightBytes) {
+        this.session = session;
+        this.producer = producer;
+        this.maxInFlightMessages = (maxInFlightMessages < 1 ? 1
+                : maxInFlightMessages);
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.messagePermits = new Semaphore(this.maxInFlightMessages);
+        this.bytePermits = (maxInFlightBytes > 0 ? new Semaphore(
+                (int) Math.min(Integer.MAX_VALUE, maxInFlightBytes)) : null);
+    }
+
+    /**
+     * Sends the message and returns a Future that completes when the broker
+     * acknowledges it
+     */
+    public Future<Void> send(Message message) throws JMSException {
+        SendFuture future = new SendFuture();
+        send(message, future);
+        return future;
+    }
+
+    /**
+     * Sends the message and calls the callback when the broker acknowledges
+     * it or the send fails. The callback runs on the transport thread and
+     * must not block.
+     */
+    public void send(Message message, AsyncCallback callback)
+            throws JMSException {
+        send(null, message, callback);
+    }
+
+    /**
+     * Sends the message to the destination, which needs a producer created
+     * without a destination, and calls the callback when the broker
+     * acknowledges it or the send fails. The callback runs on the transport
+     * thread and must not block.
+     */
+    public void send(Destination destination, Message message,
+            final AsyncCallback callback) throws JMSException {
+        final int size = sizeOf(message);
+        acquire(size);
+
+        AsyncCallback completion = new AsyncCallback() {
+
+            @Override
+            public void onSuccess() {
+                release(size);
+                completed.incrementAndGet();
+                if (null != callback) {
+                    callback.onSuccess();
+                }
+            }
+
+            @Override
+            public void onException(JMSException exception) {
+                release(size);
+                failed.incrementAndGet();
+                if (null != callback) {
+                    callback.onException(exception);
+                }
+            }
+        };
+
+        try {
+            synchronized (producer) {
+                if (null == destination) {
+                    producer.send(message, completion);
+                } else {
+                    producer.send(destination, message, completion);
+                }
+            }
+        } catch (JMSException e) {
+            release(size);
+            failed.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until every outstanding send has completed. Returns false if the
+     * timeout elapsed first.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (outstandingLock) {
+            while (outstandingMessages > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(outstandingLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    private void acquire(int size) throws AMQBrokerException {
+        try {
+            messagePermits.acquire();
+            if (null != bytePermits) {
+                try {
+                    bytePermits.acquire(bytePermitsFor(size));
+                } catch (InterruptedException e) {
+                    messagePermits.release();
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AMQBrokerException(
+                    "Interrupted while waiting for in-flight sends");
+        }
+        synchronized (outstandingLock) {
+            outstandingMessages++;
+            outstandingBytes += size;
+        }
+    }
+
+    private void release(int size) {
+        synchronized (outstandingLock) {
+            outstandingMessages--;
+            outstandingBytes -= size;
+            if (0 == outstandingMessages) {
+                outstandingLock.notifyAll();
+            }
+        }
+        if (null != bytePermits) {
+            bytePermits.release(bytePermitsFor(size));
+        }
+        messagePermits.release();
+    }
+
+    /**
+     * A message larger than the byte cap still goes out, alone.
+     */
+    private int bytePermitsFor(int size) {
+        return (int) Math.min(size, maxInFlightBytes);
+    }
+
+    private static int sizeOf(Message message) {
+        if (message instanceof ActiveMQMessage) {
+            return ((ActiveMQMessage) message).getSize();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of sends not yet acknowledged by the broker
+     */
+    public int getOutstandingCount() {
+        synchronized (outstandingLock) {
+            return outstandingMessages;
+        }
+    }
+
+    /**
+     * Returns the size of the sends not yet acknowledged by the broker
+     */
+    public long getOutstandingBytes() {
+        synchronized (outstandingLock) {
+            return outstandingBytes;
+        }
+    }
+
+    /**
+     * Returns the number of sends acknowledged by the broker
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of sends that failed
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the underlying ActiveMQ producer, e.g. to set the delivery mode
+     */
+    public ActiveMQMessageProducer getMessageProducer() {
+        return producer;
+    }
+
+    public int getMaxInFlightMessages() {
+        return maxInFlightMessages;
+    }
+
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    /**
+     * Closes the producer and its session. Sends that are still outstanding
+     * are not waited for; call awaitCompletion first.
+     */
+    @Override
+    public void close() throws JMSException {
+        try {
+            producer.close();
+            session.close();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("AsyncProducer closing failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Future completed by the broker acknowledgement of a send
+     */
+    private static class SendFuture implements Future<Void>, AsyncCallback {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile JMSException exception;
+
+        @Override
+        public void onSuccess() {
+            done.countDown();
+        }
+
+        @Override
+        public void onException(JMSException exception) {
+            this.exception = exception;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return 0 == done.getCount();
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException("Send not acknowledged within "
+                        + timeout + " " + unit);
+            }
+            return result();
+        }
+
+        private Void result() throws ExecutionException {
+            if (null != exception) {
+                throw new ExecutionException(exception);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.amq.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.apache.activemq.Closeable;
+
+import com.example.amq.exception.AMQBrokerException;
+
+/**
+ * Consumer that collects messages into batches and passes them to a
+ * BatchMessageHandler. A batch is closed when it holds maxBatchSize messages
+ * or maxLingerMillis after its first message arrived, whichever comes first.
+ *
+ * The batch is acknowledged once: by committing a transacted session, or by
+ * acknowledging the last message of a CLIENT_ACKNOWLEDGE session. If the
+ * handler throws, the session is rolled back or recovered so the batch is
+ * redelivered. The session is owned by this consumer and only used from its
+ * receiving thread.
+ *
+ * @author mshin
+ *
+ */
+public class BatchConsumer implements Closeable {
+
+    private final Session session;
+    private final MessageConsumer consumer;
+    private final BatchMessageHandler handler;
+    private final int maxBatchSize;
+    private final long maxLingerMillis;
+    private final boolean transacted;
+
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    /**
+     * Creates a consumer on the destination and starts receiving. The session
+     * must be transacted if transacted=true, or use CLIENT_ACKNOWLEDGE
+     * otherwise.
+     */
+    public BatchConsumer(Session session, Destination destination,
+            BatchMessageHandler handler, int maxBatchSize,
+            long maxLingerMillis, boolean transacted) throws JMSException {
+        this.session = session;
+        this.consumer = session.createConsumer(destination);
+        this.handler = handler;
+        this.maxBatchSize = (maxBatchSize < 1 ? 1 : maxBatchSize);
+        this.maxLingerMillis = (maxLingerMillis < 1 ? 1 : maxLingerMillis);
+        this.transacted = transacted;
+
+        this.thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                receiveBatches();
+            }
+
+        }, "BatchConsumer-" + destination);
+        this.thread.start();
+    }
+
+    /**
+     * Receives messages until the consumer is closed
+     */
+    private void receiveBatches() {
+        List<Message> batch = new ArrayList<Message>(maxBatchSize);
+        while (!closed) {
+            try {
+                Message message = consumer.receive(maxLingerMillis);
+                if (null == message) {
+                    continue;
+                }
+                batch.add(message);
+
+                long deadline = System.currentTimeMillis() + maxLingerMillis;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    message = consumer.receive(remaining);
+                    if (null == message) {
+                        break;
+                    }
+                    batch.add(message);
+                }
+
+                handleBatch(batch);
+            } catch (IllegalStateException e) {
+                // consumer or session was closed
+                closed = true;
+            } catch (JMSException e) {
+                // a receive, commit or acknowledge failed mid-batch
+                failedBatches.incrementAndGet();
+                redeliver();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Passes the batch to the handler and acknowledges it, or rolls it back if
+     * the handler fails.
+     */
+    private void handleBatch(List<Message> batch) throws JMSException {
+        try {
+            handler.handleMessages(Collections.unmodifiableList(batch));
+        } catch (Throwable t) {
+            // Errors as well, so the receive thread survives the handler
+            failedBatches.incrementAndGet();
+            redeliver();
+            return;
+        }
+
+        if (transacted) {
+            session.commit();
+        } else {
+            // acknowledges every message consumed by the session
+            batch.get(batch.size() - 1).acknowledge();
+        }
+        batches.incrementAndGet();
+        messages.addAndGet(batch.size());
+    }
+
+    /**
+     * Rolls back or recovers the session, so the messages of the failed batch
+     * are redelivered instead of being settled by the next batch's commit or
+     * acknowledge. A failure here is left to the broker, which redelivers
+     * once the session closes.
+     */
+    private void redeliver() {
+        try {
+            if (transacted) {
+                session.rollback();
+            } else {
+                session.recover();
+            }
+        } catch (JMSException e) {
+            // the batch is already counted as failed
+        }
+    }
+
+    /**
+     * Returns the underlying JMS consumer. Receiving from it directly would
+     * interfere with batching.
+     */
+    public MessageConsumer getMessageConsumer() {
+        return consumer;
+    }
+
+    /**
+     * Returns the number of acknowledged batches
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Returns the number of messages in acknowledged batches
+     */
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    /**
+     * Returns the number of batches that failed and will be redelivered
+     */
+    public long getFailedBatchCount() {
+        return failedBatches.get();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    public boolean isTransacted() {
+        return transacted;
+    }
+
+    /**
+     * Stops receiving once the current batch is handled, then closes the
+     * consumer and its session. Unacknowledged messages are redelivered.
+     */
+    @Override
+    public void close() throws JMSException {
+        closed = true;
+        try {
+            if (Thread.currentThread() != thread) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            consumer.close();
+            session.close();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BatchConsumer closing failed: "
+                    + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.amq.client;
+
+import java.util.List;
+
+import javax.jms.Message;
+
+/**
+ * Interface used for asynchronous JMS message handling in batches
+ */
+public interface BatchMessageHandler {
+    /**
+     * Process the batch. The batch is acknowledged once this returns, and
+     * redelivered if it throws.
+     */
+    void handleMessages(List<Message> messages);
+}
@@ -0,0 +1,77 @@
+package com.example.amq.client;
+
+import javax.jms.JMSException;
+
+/**
+ * Outcome of one committed or rolled back batch of a BatchingProducer
+ *
+ * @author mshin
+ *
+ */
+public class BatchResult {
+
+    private final long batchNumber;
+    private final long offset;
+    private final int size;
+    private final long commitNanos;
+    private final JMSException exception;
+
+    public BatchResult(long batchNumber, long offset, int size,
+            long commitNanos, JMSException exception) {
+        this.batchNumber = batchNumber;
+        this.offset = offset;
+        this.size = size;
+        this.commitNanos = commitNanos;
+        this.exception = exception;
+    }
+
+    /**
+     * Returns the sequence number of the batch, starting at 0
+     */
+    public long getBatchNumber() {
+        return batchNumber;
+    }
+
+    /**
+     * Returns the number of messages sent by the producer before this batch
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of messages in the batch
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns how long the commit or rollback took
+     */
+    public long getCommitNanos() {
+        return commitNanos;
+    }
+
+    /**
+     * Returns true if the batch was committed
+     */
+    public boolean isCommitted() {
+        return null == exception;
+    }
+
+    /**
+     * Returns the failure that rolled the batch back, or null if it was
+     * committed
+     */
+    public JMSException getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult[#" + batchNumber + " offset:" + offset + " size:"
+                + size + (isCommitted() ? " committed" : " rolled back: "
+                + exception.getMessage()) + "]";
+    }
+}
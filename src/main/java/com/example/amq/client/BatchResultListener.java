@@ -0,0 +1,11 @@
+package com.example.amq.client;
+
+/**
+ * Interface used to receive the outcome of each batch of a BatchingProducer
+ */
+public interface BatchResultListener {
+    /**
+     * Called after a batch is committed or rolled back
+     */
+    void onBatch(BatchResult result);
+}
@@ -0,0 +1,246 @@
+package com.example.amq.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.Closeable;
+
+import com.example.amq.exception.AMQBrokerException;
+
+/**
+ * Producer that sends on a transacted session and commits every maxBatchSize
+ * messages or maxLingerMillis after the first uncommitted send, whichever
+ * comes first. With persistent delivery the broker syncs to disk once per
+ * commit instead of once per message.
+ *
+ * A failed send or commit rolls the batch back and is reported through the
+ * BatchResultListener; the producer keeps going with the next batch. All
+ * methods are synchronized, so the session is only used by one thread at a
+ * time.
+ *
+ * @author mshin
+ *
+ */
+public class BatchingProducer implements Closeable {
+
+    private final Session session;
+    private final MessageProducer producer;
+    private final int maxBatchSize;
+    private final long maxLingerMillis;
+
+    private final ScheduledExecutorService lingerTimer;
+    private ScheduledFuture<?> lingerTask = null;
+    private volatile BatchResultListener batchListener;
+
+    private long sent = 0;
+    private long batchNumber = 0;
+    private int batchSize = 0;
+    private long batchStart = 0;
+    private JMSException batchException = null;
+    private boolean closed = false;
+
+    /**
+     * Creates a producer on the destination. The session must be transacted.
+     * maxLingerMillis <= 0 disables the time window.
+     */
+    public BatchingProducer(Session session, final Destination destination,
+            int maxBatchSize, long maxLingerMillis, long timeToLive)
+            throws JMSException {
+        if (!session.getTransacted()) {
+            throw new AMQBrokerException(
+                    "BatchingProducer requires a transacted session");
+        }
+        this.session = session;
+        this.producer = session.createProducer(destination);
+        this.producer.setTimeToLive(timeToLive);
+        this.maxBatchSize = (maxBatchSize < 1 ? 1 : maxBatchSize);
+        this.maxLingerMillis = maxLingerMillis;
+
+        if (maxLingerMillis > 0) {
+            lingerTimer = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "BatchingProducer-"
+                                    + String.valueOf(destination));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        } else {
+            lingerTimer = null;
+        }
+    }
+
+    /**
+     * Sends the message as part of the current batch, committing the batch if
+     * it is full or has lingered too long.
+     */
+    public synchronized void send(Message message) throws JMSException {
+        if (closed) {
+            throw new AMQBrokerException("BatchingProducer is closed");
+        }
+
+        if (0 == batchSize) {
+            batchStart = System.currentTimeMillis();
+            armLingerTimer();
+        }
+        batchSize++;
+
+        // once a send failed the batch will be rolled back, so the rest of it
+        // is not sent
+        if (null == batchException) {
+            try {
+                producer.send(message);
+            } catch (JMSException e) {
+                batchException = e;
+            }
+        }
+
+        if (batchSize >= maxBatchSize
+                || (maxLingerMillis > 0 && System.currentTimeMillis()
+                        - batchStart >= maxLingerMillis)) {
+            flush();
+        }
+    }
+
+    /**
+     * Commits the current batch, or rolls it back if a send failed. Returns
+     * null if there was nothing to commit.
+     */
+    public synchronized BatchResult flush() {
+        if (0 == batchSize) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        JMSException exception = batchException;
+        if (null == exception) {
+            try {
+                session.commit();
+            } catch (JMSException e) {
+                exception = e;
+            }
+        } else {
+            try {
+                session.rollback();
+            } catch (JMSException e) {
+                // the broker discards the transaction
+            }
+        }
+
+        if (null != lingerTask) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+
+        BatchResult result = new BatchResult(batchNumber, sent, batchSize,
+                System.nanoTime() - start, exception);
+        sent += batchSize;
+        batchNumber++;
+        batchSize = 0;
+        batchException = null;
+
+        BatchResultListener listener = batchListener;
+        if (null != listener) {
+            listener.onBatch(result);
+        }
+        return result;
+    }
+
+    /**
+     * Schedules the commit of the batch just opened for maxLingerMillis after
+     * its first send
+     */
+    private void armLingerTimer() {
+        if (null == lingerTimer) {
+            return;
+        }
+        final long batch = batchNumber;
+        lingerTask = lingerTimer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                flushIfLingering(batch);
+            }
+
+        }, maxLingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void flushIfLingering(long batch) {
+        // the batch may have been committed while the timer fired
+        if (!closed && batchSize > 0 && batchNumber == batch) {
+            flush();
+        }
+    }
+
+    /**
+     * Sets the listener notified after every batch
+     */
+    public void setBatchListener(BatchResultListener batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    /**
+     * Returns the underlying JMS producer, e.g. to set the delivery mode
+     */
+    public MessageProducer getMessageProducer() {
+        return producer;
+    }
+
+    /**
+     * Returns the number of messages in committed or rolled back batches
+     */
+    public synchronized long getSentCount() {
+        return sent;
+    }
+
+    /**
+     * Returns the number of messages in the current, uncommitted batch
+     */
+    public synchronized int getPendingCount() {
+        return batchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    /**
+     * Commits the current batch, then closes the producer and its session
+     */
+    @Override
+    public synchronized void close() throws JMSException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+
+        if (null != lingerTimer) {
+            lingerTimer.shutdownNow();
+        }
+
+        try {
+            producer.close();
+            session.close();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BatchingProducer closing failed: "
+                    + e.getMessage());
+        }
+    }
+}
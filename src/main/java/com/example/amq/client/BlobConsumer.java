@@ -0,0 +1,346 @@
+package com.example.amq.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.apache.activemq.BlobMessage;
+import org.apache.activemq.Closeable;
+
+import com.example.amq.exception.AMQBrokerException;
+
+/**
+ * Consumer that streams message payloads into a BlobSink. BlobMessages are
+ * downloaded from their URL and BytesMessages are copied from their body;
+ * other messages are acknowledged and skipped.
+ *
+ * At most maxConcurrentDownloads payloads are streamed at once, each through
+ * its own buffer of bufferSize bytes, so a payload is never held on the heap
+ * as a whole. While all downloads are busy, delivery waits and the broker's
+ * prefetch absorbs the backlog. Every message is acknowledged individually
+ * once its payload is written; failed downloads are redelivered after the
+ * consumer is closed.
+ *
+ * @author mshin
+ *
+ */
+public class BlobConsumer implements Closeable {
+
+    // Default values
+    private static final long CLOSE_TIMEOUT_MILLIS = 30000;
+
+    private final Session session;
+    private final MessageConsumer consumer;
+    private final BlobSink sink;
+    private final int maxConcurrentDownloads;
+    private final int bufferSize;
+
+    private final ExecutorService downloads;
+    private final Semaphore permits;
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final MessageConsumer registeredConsumer = new RegisteredConsumer();
+
+    /**
+     * Creates a consumer on the destination and starts downloading. The
+     * session must use INDIVIDUAL_ACKNOWLEDGE and is owned by this consumer.
+     */
+    public BlobConsumer(Session session, final Destination destination,
+            BlobSink sink, int maxConcurrentDownloads, int bufferSize)
+            throws JMSException {
+        this.session = session;
+        this.sink = sink;
+        this.maxConcurrentDownloads = (maxConcurrentDownloads < 1 ? 1
+                : maxConcurrentDownloads);
+        this.bufferSize = (bufferSize < 1 ? 1 : bufferSize);
+
+        this.permits = new Semaphore(this.maxConcurrentDownloads);
+        this.buffers = new ArrayBlockingQueue<ByteBuffer>(
+                this.maxConcurrentDownloads);
+        for (int i = 0; i < this.maxConcurrentDownloads; i++) {
+            buffers.add(ByteBuffer.allocate(this.bufferSize));
+        }
+
+        this.downloads = Executors.newFixedThreadPool(
+                this.maxConcurrentDownloads, new ThreadFactory() {
+
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "BlobConsumer-" + destination
+                                + "-" + threadNumber.incrementAndGet());
+                    }
+                });
+
+        this.consumer = session.createConsumer(destination);
+        this.consumer.setMessageListener(new MessageListener() {
+
+            @Override
+            public void onMessage(final Message message) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                downloads.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            download(message);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Streams the payload of the message into the sink and acknowledges it
+     */
+    private void download(Message message) {
+        ReadableByteChannel source;
+        try {
+            source = openSource(message);
+            if (null == source) {
+                message.acknowledge();
+                skipped.incrementAndGet();
+                return;
+            }
+        } catch (IOException | JMSException e) {
+            failed.incrementAndGet();
+            return;
+        }
+
+        ByteBuffer buffer = buffers.poll();
+        long size = 0;
+        try {
+            try (ReadableByteChannel in = source;
+                    WritableByteChannel out = sink.open(message)) {
+                buffer.clear();
+                while (in.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        size += out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+            sink.completed(message, size);
+            message.acknowledge();
+            completed.incrementAndGet();
+            bytes.addAndGet(size);
+        } catch (IOException | JMSException e) {
+            sink.failed(message, e);
+            failed.incrementAndGet();
+        } finally {
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Returns a channel over the payload, or null if the message has none
+     */
+    private static ReadableByteChannel openSource(Message message)
+            throws IOException, JMSException {
+        if (message instanceof BlobMessage) {
+            return Channels.newChannel(((BlobMessage) message)
+                    .getInputStream());
+        }
+        if (message instanceof BytesMessage) {
+            return new BytesMessageChannel((BytesMessage) message);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of payloads written and acknowledged
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of downloads that failed and will be redelivered
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of messages without a payload that were skipped
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * Returns the number of payload bytes written
+     */
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    /**
+     * Returns the number of downloads in progress
+     */
+    public int getActiveCount() {
+        return maxConcurrentDownloads - permits.availablePermits();
+    }
+
+    /**
+     * Returns the JMS consumer. Closing it closes this BlobConsumer, download
+     * threads included, so a Broker closing its registered consumers does not
+     * leave the threads running.
+     */
+    public MessageConsumer getMessageConsumer() {
+        return registeredConsumer;
+    }
+
+    public int getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Stops delivery, waits for the running downloads to finish, then closes
+     * the session. Unacknowledged messages are redelivered.
+     */
+    @Override
+    public void close() throws JMSException {
+        try {
+            consumer.close();
+            downloads.shutdown();
+            try {
+                downloads.awaitTermination(CLOSE_TIMEOUT_MILLIS,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            session.close();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BlobConsumer closing failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * The JMS consumer as handed out by getMessageConsumer
+     */
+    private class RegisteredConsumer implements MessageConsumer {
+
+        @Override
+        public String getMessageSelector() throws JMSException {
+            return consumer.getMessageSelector();
+        }
+
+        @Override
+        public MessageListener getMessageListener() throws JMSException {
+            return consumer.getMessageListener();
+        }
+
+        @Override
+        public void setMessageListener(MessageListener listener)
+                throws JMSException {
+            consumer.setMessageListener(listener);
+        }
+
+        @Override
+        public Message receive() throws JMSException {
+            return consumer.receive();
+        }
+
+        @Override
+        public Message receive(long timeout) throws JMSException {
+            return consumer.receive(timeout);
+        }
+
+        @Override
+        public Message receiveNoWait() throws JMSException {
+            return consumer.receiveNoWait();
+        }
+
+        @Override
+        public void close() throws JMSException {
+            BlobConsumer.this.close();
+        }
+    }
+
+    /**
+     * Reads the body of a BytesMessage in buffer sized chunks
+     */
+    private static class BytesMessageChannel implements ReadableByteChannel {
+
+        private final BytesMessage message;
+        private boolean open = true;
+
+        public BytesMessageChannel(BytesMessage message) throws JMSException {
+            this.message = message;
+            message.reset();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            try {
+                // readBytes only fills an array from its start
+                if (dst.hasArray() && 0 == dst.arrayOffset() + dst.position()) {
+                    int read = message.readBytes(dst.array(), dst.remaining());
+                    if (read > 0) {
+                        dst.position(read);
+                    }
+                    return read;
+                }
+                byte[] chunk = new byte[dst.remaining()];
+                int read = message.readBytes(chunk);
+                if (read > 0) {
+                    dst.put(chunk, 0, read);
+                }
+                return read;
+            } catch (JMSException e) {
+                throw new IOException("BytesMessage read failed: "
+                        + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.amq.client;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import javax.jms.Message;
+
+/**
+ * Destination of the payloads streamed by a BlobConsumer. The methods are
+ * called from the download threads, one message at a time per thread, so
+ * implementations must be thread-safe.
+ *
+ * @author mshin
+ *
+ */
+public interface BlobSink {
+
+    /**
+     * Returns the channel the payload of the message is written to. The
+     * consumer closes it once the payload is written or the download failed.
+     */
+    WritableByteChannel open(Message message) throws IOException;
+
+    /**
+     * Called after the payload of size bytes was written and the channel
+     * closed. The message is acknowledged once this returns.
+     */
+    void completed(Message message, long size) throws IOException;
+
+    /**
+     * Called after a download failed and the channel was closed. The message
+     * is not acknowledged.
+     */
+    void failed(Message message, Exception cause);
+}
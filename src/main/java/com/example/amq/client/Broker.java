@@ -1,8 +1,14 @@
 package com.example.amq.client;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 import javax.jms.BytesMessage;
 import javax.jms.Destination;
 import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
 import javax.jms.ObjectMessage;
@@ -20,11 +26,87 @@ public interface Broker extends Closeable {
      */
     Destination getDestination(String queue) throws JMSException;
 
+    /**
+     * Returns a queue with the given name whose consumers use the given
+     * prefetch size instead of the connection's prefetch policy. 0 makes
+     * consumers poll for each message; use 1 for slow handlers.
+     */
+    Destination getDestination(String queue, int prefetchSize)
+            throws JMSException;
+
+    /**
+     * Returns a topic with the given name. getDestination returns one too for
+     * names prefixed with topic://.
+     */
+    Destination getTopic(String topic) throws JMSException;
+
+    /**
+     * Returns the ActiveMQ virtual topic with the given name, adding the
+     * VirtualTopic. prefix if it is missing. Producers send to this topic.
+     */
+    Destination getVirtualTopic(String virtualTopic) throws JMSException;
+
+    /**
+     * Returns the queue through which the consumer group receives the virtual
+     * topic, Consumer.(consumerGroup).VirtualTopic.(name). Each group gets
+     * every message of the topic; the consumers of one group share them.
+     */
+    Destination getVirtualTopicQueue(String virtualTopic, String consumerGroup)
+            throws JMSException;
+
+    /**
+     * Returns an ActiveMQ composite destination, so a single send delivers to
+     * every one of the queues
+     */
+    Destination getCompositeDestination(Collection<String> queues)
+            throws JMSException;
+
     /**
      * Returns a message producer on the given destination
      */
     MessageProducer getProducer(Destination destination) throws JMSException;
 
+    /**
+     * Returns a producer on the given destination that sends on a transacted
+     * session, committing every maxBatchSize messages or maxLingerMillis after
+     * the first uncommitted send
+     */
+    BatchingProducer getBatchingProducer(Destination destination,
+            int maxBatchSize, long maxLingerMillis) throws JMSException;
+
+    /**
+     * Returns a producer on the given destination whose sends complete
+     * asynchronously, with at most maxInFlightMessages messages and
+     * maxInFlightBytes bytes unacknowledged by the broker
+     */
+    AsyncProducer getAsyncProducer(Destination destination,
+            int maxInFlightMessages, long maxInFlightBytes)
+            throws JMSException;
+
+    /**
+     * Sends the messages to the given destination in transactions of up to
+     * batchSize messages and returns the result of each batch
+     */
+    List<BatchResult> sendBatch(Destination destination,
+            Iterable<Message> messages, int batchSize) throws JMSException;
+
+    /**
+     * Sends the message to all the queues at once through a composite
+     * destination and waits up to timeoutMillis for the broker to acknowledge
+     * it. Returns a result per queue; they share the outcome of the send.
+     */
+    List<FanOutResult> fanOut(Collection<String> queues, Message message,
+            long timeoutMillis) throws JMSException;
+
+    /**
+     * Sends every message to its queue without waiting for the others, then
+     * waits up to timeoutMillis for the broker to acknowledge them. Returns a
+     * result per queue in the order of the map, so a slow or failing queue
+     * only affects its own result.
+     */
+    List<FanOutResult> fanOut(Map<String, ? extends Message> messages,
+            long timeoutMillis) throws JMSException;
+
     /**
      * Returns a message consumer on the given destination
      */
@@ -36,11 +118,60 @@ public interface Broker extends Closeable {
     MessageConsumer getListeningConsumer(Destination destination,
             MessageHandler messageHandler) throws JMSException;
 
+    /**
+     * Returns consumers competing for the messages of the given destination,
+     * each on a session of its own and delegating to messageHandler. On a
+     * virtual topic queue they load balance the group's subscription.
+     */
+    List<MessageConsumer> getListeningConsumers(Destination destination,
+            MessageHandler messageHandler, int consumers) throws JMSException;
+
+    /**
+     * Returns a durable subscriber on the given topic. The connection needs a
+     * client id, e.g. jms.clientID in the URI. A durable subscription has a
+     * single active subscriber; use a virtual topic to load balance.
+     */
+    MessageConsumer getDurableSubscriber(Destination topic,
+            String subscriptionName) throws JMSException;
+
+    /**
+     * Returns a durable subscriber on the given topic that delegates its
+     * onMessage to messageHandler
+     */
+    MessageConsumer getListeningDurableSubscriber(Destination topic,
+            String subscriptionName, MessageHandler messageHandler)
+            throws JMSException;
+
+    /**
+     * Returns a consumer on the given destination that passes messages to
+     * batchHandler in batches of up to maxBatchSize messages, collected for at
+     * most maxLingerMillis. Each batch is acknowledged once, through a session
+     * commit if transacted is true or CLIENT_ACKNOWLEDGE otherwise.
+     */
+    BatchConsumer getBatchConsumer(Destination destination,
+            BatchMessageHandler batchHandler, int maxBatchSize,
+            long maxLingerMillis, boolean transacted) throws JMSException;
+
+    /**
+     * Returns a consumer on the given destination that streams the payload of
+     * every BlobMessage or BytesMessage into the sink, running up to
+     * maxConcurrentDownloads downloads at once through buffers of bufferSize
+     * bytes. Each message is acknowledged once its payload is written.
+     */
+    BlobConsumer getBlobConsumer(Destination destination, BlobSink sink,
+            int maxConcurrentDownloads, int bufferSize) throws JMSException;
+
     /**
      * Creates an empty JMS BytesMessage
      */
     BytesMessage createBytesMessage() throws JMSException;
 
+    /**
+     * Creates a JMS BytesMessage holding the remaining bytes of body, leaving
+     * the position of body unchanged
+     */
+    BytesMessage createBytesMessage(ByteBuffer body) throws JMSException;
+
     /**
      * Creates an empty JMS ObjectMessage
      */
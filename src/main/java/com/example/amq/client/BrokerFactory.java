@@ -2,8 +2,13 @@ package com.example.amq.client;
 
 import javax.jms.JMSException;
 
+import org.apache.activemq.ActiveMQPrefetchPolicy;
+
+import com.example.amq.client.strategy.AcknowledgeMode;
 import com.example.amq.client.strategy.BrokerClientStrategy;
+import com.example.amq.client.strategy.PooledBrokerClientStrategy;
 import com.example.amq.client.strategy.SimpleBrokerClientStrategy;
+import com.example.amq.client.strategy.ThreadLocalSessionBrokerClientStrategy;
 
 /**
  * Factory for instantiating new Broker instances 
@@ -32,6 +37,95 @@ public class BrokerFactory {
                 password, uri);
     }
 
+    public static Broker newBrokerInstance(String username, String password,
+            String uri, ActiveMQPrefetchPolicy prefetchPolicy)
+            throws JMSException {
+        return newBrokerInstance(new SimpleBrokerClientStrategy(), username,
+                password, uri, prefetchPolicy);
+    }
+
+    /**
+     * Returns a Broker whose session acknowledges with the given mode
+     */
+    public static Broker newBrokerInstance(AcknowledgeMode acknowledgeMode,
+            String username, String password, String uri) throws JMSException {
+        return newBrokerInstance(new SimpleBrokerClientStrategy(
+                acknowledgeMode,
+                AcknowledgeMode.DEFAULT_OPTIMIZE_ACKNOWLEDGE_TIMEOUT),
+                username, password, uri);
+    }
+
+    public static Broker newPooledBrokerInstance(String username,
+            String password, String uri) throws JMSException {
+        return newBrokerInstance(new PooledBrokerClientStrategy(), username,
+                password, uri);
+    }
+
+    public static Broker newPooledBrokerInstance(String username,
+            String password, UriBuilder uri) throws JMSException {
+        return newBrokerInstance(new PooledBrokerClientStrategy(), username,
+                password, uri);
+    }
+
+    public static Broker newPooledBrokerInstance(int maxConnections,
+            int maximumActiveSessionPerConnection,
+            boolean useAnonymousProducers, String username, String password,
+            String uri) throws JMSException {
+        return newBrokerInstance(new PooledBrokerClientStrategy(
+                maxConnections, maximumActiveSessionPerConnection,
+                useAnonymousProducers), username, password, uri);
+    }
+
+    /**
+     * Returns a pooled Broker whose consumer sessions acknowledge with the
+     * given mode
+     */
+    public static Broker newPooledBrokerInstance(
+            AcknowledgeMode acknowledgeMode, String username, String password,
+            String uri) throws JMSException {
+        return newBrokerInstance(new PooledBrokerClientStrategy(
+                acknowledgeMode,
+                AcknowledgeMode.DEFAULT_OPTIMIZE_ACKNOWLEDGE_TIMEOUT),
+                username, password, uri);
+    }
+
+    public static Broker newThreadLocalSessionBrokerInstance(String username,
+            String password, String uri) throws JMSException {
+        return newBrokerInstance(new ThreadLocalSessionBrokerClientStrategy(),
+                username, password, uri);
+    }
+
+    /**
+     * Returns a Broker with a session per thread that caches up to
+     * maxCachedProducers producers, for as many sending threads that each hold
+     * a producer
+     */
+    public static Broker newThreadLocalSessionBrokerInstance(
+            int maxCachedProducers, String username, String password,
+            String uri) throws JMSException {
+        return newBrokerInstance(new ThreadLocalSessionBrokerClientStrategy(
+                maxCachedProducers), username, password, uri);
+    }
+
+    /**
+     * Returns a Broker with a session per thread, each acknowledging with the
+     * given mode
+     */
+    public static Broker newThreadLocalSessionBrokerInstance(
+            AcknowledgeMode acknowledgeMode, String username, String password,
+            String uri) throws JMSException {
+        return newBrokerInstance(new ThreadLocalSessionBrokerClientStrategy(
+                acknowledgeMode,
+                AcknowledgeMode.DEFAULT_OPTIMIZE_ACKNOWLEDGE_TIMEOUT),
+                username, password, uri);
+    }
+
+    public static Broker newThreadLocalSessionBrokerInstance(String username,
+            String password, UriBuilder uri) throws JMSException {
+        return newBrokerInstance(new ThreadLocalSessionBrokerClientStrategy(),
+                username, password, uri);
+    }
+
     public static Broker newBrokerInstance(BrokerClientStrategy strategy,
             String username, String password, UriBuilder uri)
             throws JMSException {
@@ -54,4 +148,24 @@ public class BrokerFactory {
         return new AMQBrokerImpl(strategy, username, password, uri);
     }
 
+    /**
+     * Returns a Broker whose connections use the given prefetch policy
+     */
+    public static Broker newBrokerInstance(BrokerClientStrategy strategy,
+            String username, String password, String uri,
+            ActiveMQPrefetchPolicy prefetchPolicy) throws JMSException {
+        return new AMQBrokerImpl(strategy, username, password, uri,
+                prefetchPolicy);
+    }
+
+    /**
+     * Returns a prefetch policy with the same prefetch size for queues,
+     * topics, durable subscriptions and browsers
+     */
+    public static ActiveMQPrefetchPolicy prefetchPolicy(int prefetchSize) {
+        ActiveMQPrefetchPolicy prefetchPolicy = new ActiveMQPrefetchPolicy();
+        prefetchPolicy.setAll(prefetchSize);
+        return prefetchPolicy;
+    }
+
 }
@@ -0,0 +1,92 @@
+package com.example.amq.client;
+
+import java.nio.ByteBuffer;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Moves BytesMessage bodies to and from ByteBuffers without going through
+ * Strings. Heap buffers are read and written in place; direct and mapped
+ * buffers go through a per-thread chunk, since the JMS API only accepts
+ * arrays.
+ *
+ * @author mshin
+ *
+ */
+public final class BytesMessages {
+
+    // Default values
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> CHUNK = new ThreadLocal<byte[]>() {
+
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
+
+    private BytesMessages() {
+    }
+
+    /**
+     * Appends the remaining bytes of body to the message. The position of
+     * body is left unchanged.
+     */
+    public static void write(BytesMessage message, ByteBuffer body)
+            throws JMSException {
+        if (body.hasArray()) {
+            message.writeBytes(body.array(),
+                    body.arrayOffset() + body.position(), body.remaining());
+            return;
+        }
+
+        ByteBuffer source = body.duplicate();
+        byte[] chunk = CHUNK.get();
+        while (source.hasRemaining()) {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            message.writeBytes(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Reads the whole body of the message into reuse, or into a new heap
+     * buffer if reuse is null or too small. Returns the buffer holding the
+     * body between position 0 and its limit.
+     */
+    public static ByteBuffer read(BytesMessage message, ByteBuffer reuse)
+            throws JMSException {
+        message.reset();
+        long bodyLength = message.getBodyLength();
+        if (bodyLength > Integer.MAX_VALUE) {
+            throw new JMSException("Body of " + bodyLength
+                    + " bytes does not fit in a buffer");
+        }
+        int length = (int) bodyLength;
+
+        ByteBuffer target = reuse;
+        if (null == target || target.capacity() < length) {
+            target = ByteBuffer.allocate(length);
+        }
+        target.clear();
+
+        // readBytes only fills an array from its start
+        if (target.hasArray() && 0 == target.arrayOffset()) {
+            int read = Math.max(0, message.readBytes(target.array(), length));
+            target.limit(read);
+            return target;
+        }
+
+        byte[] chunk = CHUNK.get();
+        int read;
+        while (target.position() < length
+                && (read = message.readBytes(chunk,
+                        Math.min(chunk.length, length - target.position()))) > 0) {
+            target.put(chunk, 0, read);
+        }
+        target.flip();
+        return target;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.amq.client;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.apache.activemq.BlobMessage;
+
+/**
+ * BlobSink writing every payload to its own file in a directory. The payload
+ * is downloaded to a partial file named after the message id, so concurrent
+ * downloads never share a file. Once complete it is moved to a file named
+ * after the blob name, or the message id if the message has none; if that
+ * name is taken, a counter is appended as in name-1, name-2 and so on.
+ *
+ * @author mshin
+ *
+ */
+public class DirectoryBlobSink implements BlobSink {
+
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final Path directory;
+
+    public DirectoryBlobSink(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public WritableByteChannel open(Message message) throws IOException {
+        return FileChannel.open(partialPath(message),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void completed(Message message, long size) throws IOException {
+        Path path = path(message);
+        Path target = path;
+        for (int i = 1;; i++) {
+            try {
+                // reserves the name, so a concurrent download takes another
+                Files.createFile(target);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                target = path.resolveSibling(path.getFileName() + "-" + i);
+            }
+        }
+        Files.move(partialPath(message), target,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void failed(Message message, Exception cause) {
+        try {
+            Files.deleteIfExists(partialPath(message));
+        } catch (IOException e) {
+            // the partial file is overwritten by the redelivery
+        }
+    }
+
+    /**
+     * Returns the file name the payload of the message is preferably written
+     * to. The file it ends up in has a counter appended if this one exists.
+     */
+    public Path path(Message message) throws IOException {
+        String name = null;
+        if (message instanceof BlobMessage) {
+            name = ((BlobMessage) message).getName();
+        }
+        if (null == name || name.isEmpty()) {
+            name = messageId(message);
+        }
+        return directory.resolve(fileName(name));
+    }
+
+    /**
+     * Returns the file the payload is downloaded to, unique per message
+     */
+    private Path partialPath(Message message) throws IOException {
+        return directory.resolve(fileName(messageId(message))
+                + PARTIAL_SUFFIX);
+    }
+
+    private static String messageId(Message message) throws IOException {
+        try {
+            return message.getJMSMessageID();
+        } catch (JMSException e) {
+            throw new IOException("Cannot name file for message: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Keeps the file inside the directory
+     */
+    private static String fileName(String name) {
+        name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (name.startsWith(".")) {
+            name = "_" + name;
+        }
+        return name;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.amq.client;
+
+import javax.jms.JMSException;
+
+/**
+ * Outcome of the send to one destination of a fan-out
+ *
+ * @author mshin
+ *
+ */
+public class FanOutResult {
+
+    private final String destination;
+    private final long sendNanos;
+    private final JMSException exception;
+
+    public FanOutResult(String destination, long sendNanos,
+            JMSException exception) {
+        this.destination = destination;
+        this.sendNanos = sendNanos;
+        this.exception = exception;
+    }
+
+    /**
+     * Returns the name of the destination
+     */
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * Returns how long the broker took to acknowledge the send, or how long
+     * was waited for it if it failed
+     */
+    public long getSendNanos() {
+        return sendNanos;
+    }
+
+    /**
+     * Returns true if the broker acknowledged the send
+     */
+    public boolean isSent() {
+        return null == exception;
+    }
+
+    /**
+     * Returns the failure of the send, or null if it was acknowledged
+     */
+    public JMSException getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return "FanOutResult[" + destination + " "
+                + (isSent() ? "sent" : "failed: " + exception.getMessage())
+                + " in " + sendNanos / 1000 + "us]";
+    }
+}
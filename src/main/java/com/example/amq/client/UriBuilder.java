@@ -2,13 +2,20 @@ package com.example.amq.client;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import javax.jms.JMSException;
 
 /**
  * Helper class to build an ActiveMQ URI without having to know specifics about
  * ActiveMQ failover transport.
+ *
+ * Transport tuning options that are not set (null) are left out of the URI,
+ * so the ActiveMQ defaults or the query parameters of the addresses apply.
+ * Options that are set take precedence over those query parameters.
  */
 public class UriBuilder {
     private List<URI> addressList;
@@ -16,12 +23,26 @@ public class UriBuilder {
     private boolean randomize;
     private int maxReconnectAttempts;
     private int startupMaxReconnectAttempts;
+    private boolean backup;
+    private boolean priorityBackup;
+    private boolean nio;
+    private Boolean tcpNoDelay;
+    private Integer socketBufferSize;
+    private Integer ioBufferSize;
+    private Boolean tightEncodingEnabled;
+    private Boolean cacheEnabled;
+    private Long maxInactivityDuration;
+    private Boolean useCompression;
+    private String clientId;
 
     // Default values 
     private static final boolean DEFAULT_FAILOVER = false;
     private static final boolean DEFAULT_RANDOMIZE = false;
     private static final int DEFAULT_MAX_RECONNECT_ATTEMPTS = -1;
     private static final int DEFAULT_STARTUP_MAX_RECONNECT_ATTEMPTS = -1;
+    private static final boolean DEFAULT_BACKUP = false;
+    private static final boolean DEFAULT_PRIORITY_BACKUP = false;
+    private static final boolean DEFAULT_NIO = false;
 
     
     /**
@@ -33,6 +54,9 @@ public class UriBuilder {
         setRandomize(DEFAULT_RANDOMIZE);
         setMaxReconnectAttempts(DEFAULT_MAX_RECONNECT_ATTEMPTS);
         setStartupMaxReconnectAttempts(DEFAULT_STARTUP_MAX_RECONNECT_ATTEMPTS);
+        setBackup(DEFAULT_BACKUP);
+        setPriorityBackup(DEFAULT_PRIORITY_BACKUP);
+        setNio(DEFAULT_NIO);
     }
 
     /**
@@ -50,34 +74,146 @@ public class UriBuilder {
                     "Failed to compile URI: multiple addresses were specified without failover");
         }
 
+        validate(builder);
+
+        Map<String, String> transportOptions = builder.getTransportOptions();
         for (int i = 0; i < addressList.size(); i++) {
             URI address = addressList.get(i);
             if (i > 0) {
                 sb.append(",");
             }
-            sb.append(address.getScheme());
+            String scheme = address.getScheme();
+            if (builder.isNio()) {
+                if (!"tcp".equalsIgnoreCase(scheme)
+                        && !"nio".equalsIgnoreCase(scheme)) {
+                    throw new JMSException("Failed to compile URI: nio cannot be used with "
+                            + scheme + " address " + address);
+                }
+                scheme = "nio";
+            }
+            sb.append(scheme);
             sb.append("://");
             sb.append(address.getHost());
             sb.append(":");
             sb.append(address.getPort());
+
+            Map<String, String> query = parseQuery(address.getRawQuery());
+            query.putAll(transportOptions);
+            if (!builder.isFailover()) {
+                // a single address carries the connection options too
+                query.putAll(builder.getConnectionOptions());
+            }
+            appendQuery(sb, query);
         }
 
         if (builder.isFailover()) {
             sb.append(")");
-            sb.append("?randomize=" + builder.isRandomize());
+            Map<String, String> query = new LinkedHashMap<String, String>();
+            query.put("randomize", String.valueOf(builder.isRandomize()));
             if (builder.getStartupMaxReconnectAttempts() >= 0) {
-                sb.append("&startupMaxReconnectAttempts="
-                        + builder.getStartupMaxReconnectAttempts());
+                query.put("startupMaxReconnectAttempts",
+                        String.valueOf(builder.getStartupMaxReconnectAttempts()));
             }
             if (builder.getMaxReconnectAttempts() >= 0) {
-                sb.append("&maxReconnectAttempts="
-                        + builder.getMaxReconnectAttempts());
+                query.put("maxReconnectAttempts",
+                        String.valueOf(builder.getMaxReconnectAttempts()));
+            }
+            if (builder.isBackup()) {
+                query.put("backup", "true");
+            }
+            if (builder.isPriorityBackup()) {
+                query.put("priorityBackup", "true");
             }
+            query.putAll(builder.getConnectionOptions());
+            appendQuery(sb, query);
         }
 
         return sb.toString();
     }
 
+    private static void validate(UriBuilder builder) throws JMSException {
+        if (!builder.isFailover()
+                && (builder.isBackup() || builder.isPriorityBackup())) {
+            throw new JMSException(
+                    "Failed to compile URI: backup and priorityBackup require failover");
+        }
+        if (null != builder.getSocketBufferSize()
+                && builder.getSocketBufferSize() <= 0) {
+            throw new JMSException(
+                    "Failed to compile URI: socketBufferSize must be positive");
+        }
+        if (null != builder.getIoBufferSize() && builder.getIoBufferSize() <= 0) {
+            throw new JMSException(
+                    "Failed to compile URI: ioBufferSize must be positive");
+        }
+        if (null != builder.getMaxInactivityDuration()
+                && builder.getMaxInactivityDuration() < 0) {
+            throw new JMSException(
+                    "Failed to compile URI: maxInactivityDuration must not be negative");
+        }
+    }
+
+    /**
+     * Options of each transport, i.e. of every address
+     */
+    private Map<String, String> getTransportOptions() {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        putIfSet(options, "tcpNoDelay", tcpNoDelay);
+        putIfSet(options, "socketBufferSize", socketBufferSize);
+        putIfSet(options, "ioBufferSize", ioBufferSize);
+        putIfSet(options, "wireFormat.tightEncodingEnabled",
+                tightEncodingEnabled);
+        putIfSet(options, "wireFormat.cacheEnabled", cacheEnabled);
+        putIfSet(options, "wireFormat.maxInactivityDuration",
+                maxInactivityDuration);
+        return options;
+    }
+
+    /**
+     * Options of the connection factory, which only reads the outermost URI
+     */
+    private Map<String, String> getConnectionOptions() {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        putIfSet(options, "jms.useCompression", useCompression);
+        putIfSet(options, "jms.clientID", clientId);
+        return options;
+    }
+
+    private static void putIfSet(Map<String, String> options, String name,
+            Object value) {
+        if (null != value) {
+            options.put(name, String.valueOf(value));
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new LinkedHashMap<String, String>();
+        if (null == rawQuery || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int eq = parameter.indexOf('=');
+            if (eq < 0) {
+                query.put(parameter, "");
+            } else {
+                query.put(parameter.substring(0, eq),
+                        parameter.substring(eq + 1));
+            }
+        }
+        return query;
+    }
+
+    private static void appendQuery(StringBuilder sb, Map<String, String> query) {
+        char separator = '?';
+        for (Entry<String, String> parameter : query.entrySet()) {
+            sb.append(separator);
+            sb.append(parameter.getKey());
+            sb.append("=");
+            sb.append(parameter.getValue());
+            separator = '&';
+        }
+    }
+
     public List<URI> getAddressList() {
         return addressList;
     }
@@ -127,4 +263,111 @@ public class UriBuilder {
         this.startupMaxReconnectAttempts = (startupMaxReconnectAttempts < -1 ? -1
                 : startupMaxReconnectAttempts);
     }
+
+    public boolean isBackup() {
+        return backup;
+    }
+
+    /**
+     * Keeps a connection to a backup broker open for faster failover
+     */
+    public void setBackup(boolean backup) {
+        this.backup = backup;
+    }
+
+    public boolean isPriorityBackup() {
+        return priorityBackup;
+    }
+
+    /**
+     * Prefers the first address and reconnects to it once it is back
+     */
+    public void setPriorityBackup(boolean priorityBackup) {
+        this.priorityBackup = priorityBackup;
+    }
+
+    public boolean isNio() {
+        return nio;
+    }
+
+    /**
+     * Uses the NIO transport for tcp addresses
+     */
+    public void setNio(boolean nio) {
+        this.nio = nio;
+    }
+
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public Integer getSocketBufferSize() {
+        return socketBufferSize;
+    }
+
+    /**
+     * Sets the socket send and receive buffer sizes in bytes
+     */
+    public void setSocketBufferSize(int socketBufferSize) {
+        this.socketBufferSize = socketBufferSize;
+    }
+
+    public Integer getIoBufferSize() {
+        return ioBufferSize;
+    }
+
+    public void setIoBufferSize(int ioBufferSize) {
+        this.ioBufferSize = ioBufferSize;
+    }
+
+    public Boolean getTightEncodingEnabled() {
+        return tightEncodingEnabled;
+    }
+
+    public void setTightEncodingEnabled(boolean tightEncodingEnabled) {
+        this.tightEncodingEnabled = tightEncodingEnabled;
+    }
+
+    public Boolean getCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    public Long getMaxInactivityDuration() {
+        return maxInactivityDuration;
+    }
+
+    /**
+     * Sets the inactivity monitor timeout in milliseconds; 0 disables it
+     */
+    public void setMaxInactivityDuration(long maxInactivityDuration) {
+        this.maxInactivityDuration = maxInactivityDuration;
+    }
+
+    public Boolean getUseCompression() {
+        return useCompression;
+    }
+
+    public void setUseCompression(boolean useCompression) {
+        this.useCompression = useCompression;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * Sets the client id of the connection, which durable subscriptions are
+     * registered under
+     */
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
 }
@@ -0,0 +1,336 @@
+package com.example.amq.client.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.jms.pool.PooledConnection;
+import org.apache.activemq.management.JMSConnectionStatsImpl;
+import org.apache.activemq.management.JMSSessionStatsImpl;
+
+import com.example.amq.client.AMQBroker;
+import com.example.amq.client.MessageHandler;
+import com.example.amq.client.strategy.MessageDispatcher;
+import com.example.amq.exception.AMQBrokerException;
+
+/**
+ * Instrumentation of a Broker client. Producers, consumers and handlers
+ * handed out by the broker are wrapped by the meter methods, which record
+ * into per destination DestinationMetrics. Session, producer and consumer
+ * counts are read from the ActiveMQ connections of the broker when asked for,
+ * so they cover every resource still open, however it was created. Dispatch
+ * state is read from the MessageDispatcher.
+ *
+ * The metrics can be read directly or published as MBeans under
+ * com.example.amq.client:type=Client,name=(name) with one
+ * type=Destination MBean for each of the first MAX_DESTINATION_MBEANS
+ * destinations. Further destinations are metered and included in the totals,
+ * but only readable through getDestinationMetrics, so a client using
+ * thousands of destinations does not flood the MBeanServer.
+ *
+ * @author mshin
+ *
+ */
+public class ClientMetrics implements ClientMetricsMBean {
+
+    public static final String JMX_DOMAIN = "com.example.amq.client";
+
+    /**
+     * Most destinations published as their own MBean
+     */
+    public static final int MAX_DESTINATION_MBEANS = 100;
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final String name;
+    private final AMQBroker broker;
+    private final MessageDispatcher dispatcher;
+    private final ConcurrentMap<String, DestinationMetrics> destinations = new ConcurrentHashMap<String, DestinationMetrics>();
+
+    private volatile MBeanServer mbeanServer = null;
+    private int publishedDestinations = 0;
+
+    /**
+     * Creates metrics for the broker with a name unique within this JVM.
+     * dispatcher may be null if the strategy has none.
+     */
+    public ClientMetrics(AMQBroker broker, MessageDispatcher dispatcher) {
+        this("client-" + instances.incrementAndGet(), broker, dispatcher);
+    }
+
+    public ClientMetrics(String name, AMQBroker broker,
+            MessageDispatcher dispatcher) {
+        this.name = name;
+        this.broker = broker;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Returns the metrics of the destination, creating them on first use
+     */
+    public DestinationMetrics destination(Destination destination) {
+        String key = String.valueOf(destination);
+        DestinationMetrics metrics = destinations.get(key);
+        if (null == metrics) {
+            DestinationMetrics created = new DestinationMetrics(key);
+            metrics = destinations.putIfAbsent(key, created);
+            if (null == metrics) {
+                metrics = created;
+                registerDestination(created);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of every destination used so far, keyed by name
+     */
+    public Map<String, DestinationMetrics> getDestinationMetrics() {
+        return destinations;
+    }
+
+    /**
+     * Returns a producer recording sends into the metrics of their
+     * destination
+     */
+    public MessageProducer meter(MessageProducer producer)
+            throws JMSException {
+        return new MeteredProducer(producer, this);
+    }
+
+    /**
+     * Returns a consumer counting the messages it receives
+     */
+    public MessageConsumer meter(MessageConsumer consumer,
+            Destination destination) {
+        return new MeteredConsumer(consumer, destination(destination));
+    }
+
+    /**
+     * Returns a handler counting messages and timing their handling
+     */
+    public MessageHandler meter(final MessageHandler handler,
+            Destination destination) {
+        final DestinationMetrics metrics = destination(destination);
+        return new MessageHandler() {
+
+            @Override
+            public void handleMessage(Message message) {
+                metrics.recordReceive();
+                long start = System.nanoTime();
+                try {
+                    handler.handleMessage(message);
+                } finally {
+                    metrics.recordHandled(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    /**
+     * Publishes the metrics on the platform MBeanServer
+     */
+    public void register() throws AMQBrokerException {
+        register(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public synchronized void register(MBeanServer server)
+            throws AMQBrokerException {
+        try {
+            server.registerMBean(this, clientName());
+            mbeanServer = server;
+            for (DestinationMetrics metrics : destinations.values()) {
+                if (publishedDestinations >= MAX_DESTINATION_MBEANS) {
+                    break;
+                }
+                server.registerMBean(metrics, destinationName(metrics));
+                publishedDestinations++;
+            }
+        } catch (JMException e) {
+            throw new AMQBrokerException("Metrics registration failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the MBeans published by register()
+     */
+    public synchronized void unregister() throws AMQBrokerException {
+        MBeanServer server = mbeanServer;
+        if (null == server) {
+            return;
+        }
+        mbeanServer = null;
+        publishedDestinations = 0;
+        try {
+            for (DestinationMetrics metrics : destinations.values()) {
+                ObjectName objectName = destinationName(metrics);
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            }
+            server.unregisterMBean(clientName());
+        } catch (JMException e) {
+            throw new AMQBrokerException("Metrics unregistration failed: "
+                    + e.getMessage());
+        }
+    }
+
+    private synchronized void registerDestination(DestinationMetrics metrics) {
+        MBeanServer server = mbeanServer;
+        if (null == server || publishedDestinations >= MAX_DESTINATION_MBEANS) {
+            return;
+        }
+        try {
+            server.registerMBean(metrics, destinationName(metrics));
+            publishedDestinations++;
+        } catch (JMException e) {
+            // the metrics are still recorded, only not published
+        }
+    }
+
+    private ObjectName clientName() throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Client,name="
+                + ObjectName.quote(name));
+    }
+
+    private ObjectName destinationName(DestinationMetrics metrics)
+            throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Destination,client="
+                + ObjectName.quote(name) + ",name="
+                + ObjectName.quote(metrics.getDestination()));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getUri() {
+        return broker.getUri();
+    }
+
+    @Override
+    public int getConnectionCount() {
+        return sizeOf(broker.getConnections());
+    }
+
+    @Override
+    public int getSessionCount() {
+        int count = 0;
+        for (JMSConnectionStatsImpl stats : connectionStats()) {
+            count += stats.getSessions().length;
+        }
+        return count;
+    }
+
+    @Override
+    public int getProducerCount() {
+        int count = 0;
+        for (JMSConnectionStatsImpl stats : connectionStats()) {
+            for (JMSSessionStatsImpl session : stats.getSessions()) {
+                count += session.getProducers().length;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getConsumerCount() {
+        int count = 0;
+        for (JMSConnectionStatsImpl stats : connectionStats()) {
+            for (JMSSessionStatsImpl session : stats.getSessions()) {
+                count += session.getConsumers().length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the statistics of the open ActiveMQ connections of the broker,
+     * unwrapping pooled ones. They list the sessions, producers and consumers
+     * that are open right now.
+     */
+    private List<JMSConnectionStatsImpl> connectionStats() {
+        List<JMSConnectionStatsImpl> stats = new ArrayList<JMSConnectionStatsImpl>();
+        Map<String, Connection> connections = broker.getConnections();
+        if (null == connections) {
+            return stats;
+        }
+        for (Connection connection : connections.values()) {
+            try {
+                if (connection instanceof PooledConnection) {
+                    connection = ((PooledConnection) connection)
+                            .getConnection();
+                }
+            } catch (JMSException e) {
+                // the pooled connection is closed
+                continue;
+            }
+            if (connection instanceof ActiveMQConnection) {
+                stats.add(((ActiveMQConnection) connection)
+                        .getConnectionStats());
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public int getDestinationCount() {
+        return sizeOf(broker.getDestinations());
+    }
+
+    @Override
+    public int getDispatchQueueDepth() {
+        return (null == dispatcher ? 0 : dispatcher.getQueueDepth());
+    }
+
+    @Override
+    public int getDispatchActiveThreads() {
+        return (null == dispatcher ? 0 : dispatcher.getActiveCount());
+    }
+
+    @Override
+    public long getSentCount() {
+        long total = 0;
+        for (DestinationMetrics metrics : destinations.values()) {
+            total += metrics.getSentCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getReceivedCount() {
+        long total = 0;
+        for (DestinationMetrics metrics : destinations.values()) {
+            total += metrics.getReceivedCount();
+        }
+        return total;
+    }
+
+    @Override
+    public void reset() {
+        for (DestinationMetrics metrics : destinations.values()) {
+            metrics.reset();
+        }
+    }
+
+    private static int sizeOf(Map<?, ?> registry) {
+        return (null == registry ? 0 : registry.size());
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.amq.client.metrics;
+
+/**
+ * JMX view of one Broker client: its JMS resources, listener dispatch and
+ * totals over all destinations
+ *
+ * @author mshin
+ *
+ */
+public interface ClientMetricsMBean {
+
+    String getUri();
+
+    int getConnectionCount();
+
+    int getSessionCount();
+
+    int getProducerCount();
+
+    int getConsumerCount();
+
+    int getDestinationCount();
+
+    /**
+     * Returns the number of handler tasks waiting for a dispatch thread
+     */
+    int getDispatchQueueDepth();
+
+    /**
+     * Returns the number of dispatch threads currently running handlers
+     */
+    int getDispatchActiveThreads();
+
+    long getSentCount();
+
+    long getReceivedCount();
+
+    /**
+     * Resets the counters and timers of every destination
+     */
+    void reset();
+}
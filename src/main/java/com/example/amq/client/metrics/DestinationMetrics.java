@@ -0,0 +1,93 @@
+package com.example.amq.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Messages sent and received on one destination, with the time spent in
+ * send() and in MessageHandlers
+ *
+ * @author mshin
+ *
+ */
+public class DestinationMetrics implements DestinationMetricsMBean {
+
+    private final String destination;
+
+    private final TimerStats send = new TimerStats();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final TimerStats handler = new TimerStats();
+
+    DestinationMetrics(String destination) {
+        this.destination = destination;
+    }
+
+    public void recordSend(long nanos) {
+        send.record(nanos);
+    }
+
+    public void recordSendFailure() {
+        sendFailures.incrementAndGet();
+    }
+
+    public void recordReceive() {
+        received.incrementAndGet();
+    }
+
+    public void recordHandled(long nanos) {
+        handler.record(nanos);
+    }
+
+    @Override
+    public String getDestination() {
+        return destination;
+    }
+
+    @Override
+    public long getSentCount() {
+        return send.getCount();
+    }
+
+    @Override
+    public long getSendFailureCount() {
+        return sendFailures.get();
+    }
+
+    @Override
+    public double getSendTimeAverageMicros() {
+        return send.getAverageMicros();
+    }
+
+    @Override
+    public double getSendTimeMaxMicros() {
+        return send.getMaxMicros();
+    }
+
+    @Override
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    @Override
+    public long getHandledCount() {
+        return handler.getCount();
+    }
+
+    @Override
+    public double getHandlerTimeAverageMicros() {
+        return handler.getAverageMicros();
+    }
+
+    @Override
+    public double getHandlerTimeMaxMicros() {
+        return handler.getMaxMicros();
+    }
+
+    @Override
+    public void reset() {
+        send.reset();
+        sendFailures.set(0);
+        received.set(0);
+        handler.reset();
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.amq.client.metrics;
+
+/**
+ * JMX view of the traffic of one destination
+ *
+ * @author mshin
+ *
+ */
+public interface DestinationMetricsMBean {
+
+    String getDestination();
+
+    long getSentCount();
+
+    long getSendFailureCount();
+
+    double getSendTimeAverageMicros();
+
+    double getSendTimeMaxMicros();
+
+    long getReceivedCount();
+
+    long getHandledCount();
+
+    double getHandlerTimeAverageMicros();
+
+    double getHandlerTimeMaxMicros();
+
+    /**
+     * Resets the counters and timers to 0
+     */
+    void reset();
+}
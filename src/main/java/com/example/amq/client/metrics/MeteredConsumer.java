@@ -0,0 +1,66 @@
+package com.example.amq.client.metrics;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+
+/**
+ * Synchronous consumer counting the messages it receives
+ *
+ * @author mshin
+ *
+ */
+class MeteredConsumer implements MessageConsumer {
+
+    private final MessageConsumer consumer;
+    private final DestinationMetrics metrics;
+
+    MeteredConsumer(MessageConsumer consumer, DestinationMetrics metrics) {
+        this.consumer = consumer;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getMessageSelector() throws JMSException {
+        return consumer.getMessageSelector();
+    }
+
+    @Override
+    public MessageListener getMessageListener() throws JMSException {
+        return consumer.getMessageListener();
+    }
+
+    @Override
+    public void setMessageListener(MessageListener listener)
+            throws JMSException {
+        consumer.setMessageListener(listener);
+    }
+
+    @Override
+    public Message receive() throws JMSException {
+        return received(consumer.receive());
+    }
+
+    @Override
+    public Message receive(long timeout) throws JMSException {
+        return received(consumer.receive(timeout));
+    }
+
+    @Override
+    public Message receiveNoWait() throws JMSException {
+        return received(consumer.receiveNoWait());
+    }
+
+    @Override
+    public void close() throws JMSException {
+        consumer.close();
+    }
+
+    private Message received(Message message) {
+        if (null != message) {
+            metrics.recordReceive();
+        }
+        return message;
+    }
+}
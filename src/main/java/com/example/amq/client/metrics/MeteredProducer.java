@@ -0,0 +1,104 @@
+package com.example.amq.client.metrics;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+
+import com.example.amq.client.strategy.MessageProducerDelegate;
+
+/**
+ * Producer recording the count and duration of every send
+ *
+ * @author mshin
+ *
+ */
+class MeteredProducer extends MessageProducerDelegate {
+
+    private final ClientMetrics clientMetrics;
+    // null for a producer without a default destination
+    private final DestinationMetrics metrics;
+
+    MeteredProducer(MessageProducer producer, ClientMetrics clientMetrics)
+            throws JMSException {
+        super(producer);
+        this.clientMetrics = clientMetrics;
+        Destination destination = producer.getDestination();
+        this.metrics = (null == destination ? null : clientMetrics
+                .destination(destination));
+    }
+
+    @Override
+    public void send(Message message) throws JMSException {
+        long start = System.nanoTime();
+        try {
+            producer.send(message);
+        } catch (JMSException e) {
+            failed(metrics);
+            throw e;
+        }
+        sent(metrics, start);
+    }
+
+    @Override
+    public void send(Message message, int deliveryMode, int priority,
+            long timeToLive) throws JMSException {
+        long start = System.nanoTime();
+        try {
+            producer.send(message, deliveryMode, priority, timeToLive);
+        } catch (JMSException e) {
+            failed(metrics);
+            throw e;
+        }
+        sent(metrics, start);
+    }
+
+    @Override
+    public void send(Destination destination, Message message)
+            throws JMSException {
+        DestinationMetrics destinationMetrics = clientMetrics
+                .destination(destination);
+        long start = System.nanoTime();
+        try {
+            producer.send(destination, message);
+        } catch (JMSException e) {
+            failed(destinationMetrics);
+            throw e;
+        }
+        sent(destinationMetrics, start);
+    }
+
+    @Override
+    public void send(Destination destination, Message message,
+            int deliveryMode, int priority, long timeToLive)
+            throws JMSException {
+        DestinationMetrics destinationMetrics = clientMetrics
+                .destination(destination);
+        long start = System.nanoTime();
+        try {
+            producer.send(destination, message, deliveryMode, priority,
+                    timeToLive);
+        } catch (JMSException e) {
+            failed(destinationMetrics);
+            throw e;
+        }
+        sent(destinationMetrics, start);
+    }
+
+    @Override
+    public void close() throws JMSException {
+        producer.close();
+    }
+
+    private static void sent(DestinationMetrics metrics, long start) {
+        if (null != metrics) {
+            metrics.recordSend(System.nanoTime() - start);
+        }
+    }
+
+    private static void failed(DestinationMetrics metrics) {
+        if (null != metrics) {
+            metrics.recordSendFailure();
+        }
+    }
+}
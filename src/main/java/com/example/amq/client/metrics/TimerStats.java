@@ -0,0 +1,47 @@
+package com.example.amq.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count, total and maximum of timed operations in nanoseconds. Lock free.
+ *
+ * @author mshin
+ *
+ */
+class TimerStats {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long current;
+        while (nanos > (current = maxNanos.get())) {
+            if (maxNanos.compareAndSet(current, nanos)) {
+                break;
+            }
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    double getAverageMicros() {
+        long n = count.get();
+        return (0 == n ? 0.0 : totalNanos.get() / 1000.0 / n);
+    }
+
+    double getMaxMicros() {
+        return maxNanos.get() / 1000.0;
+    }
+
+    void reset() {
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.amq.client.strategy;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQSession;
+
+/**
+ * Acknowledgement mode of the consumer sessions of a strategy.
+ *
+ * AUTO acknowledges every message as it is delivered. DUPS_OK and OPTIMIZED
+ * acknowledge lazily in batches, so a failure can redeliver messages that
+ * were already handled; use them for idempotent consumers only. OPTIMIZED
+ * turns on the connection factory's optimizeAcknowledge, which acknowledges
+ * once 65% of the prefetch is consumed or the timeout elapses.
+ *
+ * With INDIVIDUAL, listening consumers acknowledge a message after its
+ * MessageHandler returns; synchronous consumers must call
+ * Message.acknowledge() themselves. CLIENT acknowledges every message consumed
+ * by the session so far, including those still queued for a handler, so it is
+ * only for synchronous consumers; listening with it is rejected.
+ *
+ * @author mshin
+ *
+ */
+public enum AcknowledgeMode {
+    AUTO(Session.AUTO_ACKNOWLEDGE),
+    DUPS_OK(Session.DUPS_OK_ACKNOWLEDGE),
+    CLIENT(Session.CLIENT_ACKNOWLEDGE),
+    INDIVIDUAL(ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE),
+    OPTIMIZED(Session.AUTO_ACKNOWLEDGE);
+
+    /**
+     * Default for the longest time in milliseconds OPTIMIZED holds back an
+     * acknowledgement, the same as ActiveMQ's
+     */
+    public static final long DEFAULT_OPTIMIZE_ACKNOWLEDGE_TIMEOUT = 300;
+
+    private final int sessionMode;
+
+    private AcknowledgeMode(int sessionMode) {
+        this.sessionMode = sessionMode;
+    }
+
+    /**
+     * Returns the acknowledge mode to create sessions with
+     */
+    public int getSessionMode() {
+        return sessionMode;
+    }
+
+    /**
+     * Returns true if messages must be acknowledged by the client
+     */
+    public boolean isExplicit() {
+        return this == CLIENT || this == INDIVIDUAL;
+    }
+
+    /**
+     * Acknowledges the message if this mode requires it
+     */
+    public void acknowledge(Message message) throws JMSException {
+        if (isExplicit()) {
+            message.acknowledge();
+        }
+    }
+}
@@ -18,6 +18,12 @@ import org.apache.activemq.BlobMessage;
 import org.apache.activemq.Closeable;
 
 import com.example.amq.client.AMQBroker;
+import com.example.amq.client.AsyncProducer;
+import com.example.amq.client.BatchConsumer;
+import com.example.amq.client.BatchMessageHandler;
+import com.example.amq.client.BlobConsumer;
+import com.example.amq.client.BlobSink;
+import com.example.amq.client.BatchingProducer;
 import com.example.amq.client.MessageHandler;
 
 /**
@@ -59,11 +65,31 @@ public interface BrokerClientStrategy extends Closeable {
      */
     Destination getDestination(String destinationName) throws JMSException;
 
+    /**
+     * Returns the JMS Topic with the specified name
+     */
+    Destination getTopic(String topicName) throws JMSException;
+
     /**
      * Returns a JMS message producer on the specified destination
      */
     MessageProducer getProducer(Destination destination) throws JMSException;
 
+    /**
+     * Returns a producer on the specified destination that sends on its own
+     * transacted session and commits in batches
+     */
+    BatchingProducer getBatchingProducer(Destination destination,
+            int maxBatchSize, long maxLingerMillis) throws JMSException;
+
+    /**
+     * Returns a producer on the specified destination that sends
+     * asynchronously with completion callbacks and an in-flight limit
+     */
+    AsyncProducer getAsyncProducer(Destination destination,
+            int maxInFlightMessages, long maxInFlightBytes)
+            throws JMSException;
+
     /**
      * Returns a JMS message consumer on the specified destination
      */
@@ -75,6 +101,44 @@ public interface BrokerClientStrategy extends Closeable {
     MessageConsumer getListeningConsumer(Destination destination,
             MessageHandler messageHandler) throws JMSException;
 
+    /**
+     * Returns a JMS message consumer on the specified destination with a
+     * session of its own, so that several consumers of one destination
+     * receive in parallel
+     */
+    MessageConsumer getSessionConsumer(Destination destination)
+            throws JMSException;
+
+    /**
+     * Returns a durable subscriber on the specified topic with a session of
+     * its own. The connection needs a client id.
+     */
+    MessageConsumer getDurableSubscriber(Destination topic,
+            String subscriptionName) throws JMSException;
+
+    /**
+     * Makes the consumer hand its messages to the asynchronous message
+     * handler, the way getListeningConsumer does, and returns it
+     */
+    MessageConsumer listen(MessageConsumer consumer,
+            MessageHandler messageHandler) throws JMSException;
+
+    /**
+     * Returns a consumer on the specified destination that hands messages to
+     * the batch handler in size or time bounded batches, acknowledging each
+     * batch once
+     */
+    BatchConsumer getBatchConsumer(Destination destination,
+            BatchMessageHandler batchHandler, int maxBatchSize,
+            long maxLingerMillis, boolean transacted) throws JMSException;
+
+    /**
+     * Returns a consumer on the specified destination that streams message
+     * payloads into the sink on a bounded number of download threads
+     */
+    BlobConsumer getBlobConsumer(Destination destination, BlobSink sink,
+            int maxConcurrentDownloads, int bufferSize) throws JMSException;
+
     /**
      * Returns an empty JMS BytesMessage
      */
@@ -104,4 +168,9 @@ public interface BrokerClientStrategy extends Closeable {
      * Returns an ActiveMQ BlobMessage with the specified inputStream
      */
     BlobMessage createBlobMessage(InputStream inputStream) throws JMSException;
+
+    /**
+     * Returns the dispatcher running MessageHandlers of listening consumers
+     */
+    MessageDispatcher getMessageDispatcher();
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+package com.example.amq.client.strategy;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+
+import org.apache.activemq.ActiveMQMessageConsumer;
+
+/**
+ * Bounded executor used by the strategies to run MessageHandlers for listening
+ * consumers. Tasks are queued up to queueCapacity, then the thread count grows
+ * from coreThreads up to maxThreads, then the SaturationPolicy applies. Since
+ * none of the policies drop messages, a saturated executor pushes back on the
+ * consumer and the broker's prefetch absorbs the load instead of the heap.
+ *
+ * @author mshin
+ *
+ */
+public class DispatchExecutor extends ThreadPoolExecutor implements
+        MessageDispatcher {
+
+    /**
+     * What to do with a message when the work queue is full and all threads
+     * are busy
+     */
+    public enum SaturationPolicy {
+        /**
+         * Block the listener thread until the queue has room
+         */
+        BLOCK,
+        /**
+         * Run the handler on the listener thread
+         */
+        CALLER_RUNS,
+        /**
+         * Stop message delivery on the consumer until the queue has drained to
+         * half its capacity. Consumers that are not ActiveMQMessageConsumers,
+         * such as those of a custom strategy, fall back to BLOCK; the
+         * strategies of this package hand out ActiveMQMessageConsumers.
+         */
+        PAUSE_CONSUMER
+    }
+
+    // Default values
+    private static final int DEFAULT_THREADS = Runtime.getRuntime()
+            .availableProcessors();
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final SaturationPolicy DEFAULT_SATURATION_POLICY = SaturationPolicy.BLOCK;
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    private final int queueCapacity;
+    private final SaturationPolicy saturationPolicy;
+
+    /**
+     * Tasks rejected while their consumer is paused
+     */
+    private final Queue<ConsumerTask> overflow = new ConcurrentLinkedQueue<ConsumerTask>();
+    private final Set<ActiveMQMessageConsumer> pausedConsumers = Collections
+            .newSetFromMap(new ConcurrentHashMap<ActiveMQMessageConsumer, Boolean>());
+
+    /**
+     * Guards moving tasks between overflow and the work queue and pausing and
+     * resuming consumers, so no task is queued twice
+     */
+    private final Object overflowLock = new Object();
+
+    /**
+     * Returns a DispatchExecutor with a fixed thread count of one per
+     * processor, a queue of 1000 messages and the BLOCK policy
+     */
+    public DispatchExecutor() {
+        this(DEFAULT_THREADS, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY,
+                DEFAULT_SATURATION_POLICY);
+    }
+
+    /**
+     * Returns a DispatchExecutor with the given settings. A fixed thread count
+     * is coreThreads == maxThreads.
+     */
+    public DispatchExecutor(int coreThreads, int maxThreads,
+            int queueCapacity, SaturationPolicy saturationPolicy) {
+        super(coreThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity));
+        this.queueCapacity = queueCapacity;
+        this.saturationPolicy = (null == saturationPolicy ? DEFAULT_SATURATION_POLICY
+                : saturationPolicy);
+        setRejectedExecutionHandler(new SaturationHandler());
+    }
+
+    @Override
+    public void dispatch(MessageConsumer consumer, Message message,
+            Runnable task) {
+        execute(new ConsumerTask(consumer, task));
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return getQueue().size() + overflow.size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public SaturationPolicy getSaturationPolicy() {
+        return saturationPolicy;
+    }
+
+    /**
+     * Returns the number of consumers currently paused by this executor
+     */
+    public int getPausedConsumerCount() {
+        return pausedConsumers.size();
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        drainOverflow();
+    }
+
+    /**
+     * Moves overflowed tasks back into the work queue and resumes paused
+     * consumers once the queue has drained to half its capacity.
+     */
+    private void drainOverflow() {
+        synchronized (overflowLock) {
+            ConsumerTask task;
+            while (null != (task = overflow.peek())) {
+                if (!getQueue().offer(task)) {
+                    return;
+                }
+                overflow.remove();
+            }
+
+            if (!pausedConsumers.isEmpty()
+                    && getQueue().size() <= queueCapacity / 2) {
+                Iterator<ActiveMQMessageConsumer> iterator = pausedConsumers
+                        .iterator();
+                while (iterator.hasNext()) {
+                    ActiveMQMessageConsumer consumer = iterator.next();
+                    iterator.remove();
+                    try {
+                        consumer.start();
+                    } catch (JMSException e) {
+                        // consumer was closed while paused
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the SaturationPolicy to a rejected task
+     */
+    private class SaturationHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException(
+                        "Dispatch executor is shut down");
+            }
+
+            switch (saturationPolicy) {
+            case CALLER_RUNS:
+                r.run();
+                break;
+            case PAUSE_CONSUMER:
+                MessageConsumer consumer = ((ConsumerTask) r).consumer;
+                if (consumer instanceof ActiveMQMessageConsumer) {
+                    ActiveMQMessageConsumer amqConsumer = (ActiveMQMessageConsumer) consumer;
+                    synchronized (overflowLock) {
+                        amqConsumer.stop();
+                        pausedConsumers.add(amqConsumer);
+                        overflow.add((ConsumerTask) r);
+                    }
+                    // the queue may have drained before the task was parked
+                    drainOverflow();
+                    break;
+                }
+                block(r, executor);
+                break;
+            default:
+                block(r, executor);
+                break;
+            }
+        }
+
+        private void block(Runnable r, ThreadPoolExecutor executor) {
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(
+                        "Interrupted while waiting for dispatch queue", e);
+            }
+        }
+    }
+
+    /**
+     * Task paired with the consumer its message was delivered to
+     */
+    private static class ConsumerTask implements Runnable {
+
+        private final MessageConsumer consumer;
+        private final Runnable task;
+
+        public ConsumerTask(MessageConsumer consumer, Runnable task) {
+            this.consumer = consumer;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.amq.client.strategy;
+
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+
+/**
+ * Runs the MessageHandler tasks of listening consumers off the session thread
+ *
+ * @author mshin
+ *
+ */
+public interface MessageDispatcher {
+
+    /**
+     * Runs the task for a message delivered to the given consumer
+     */
+    void dispatch(MessageConsumer consumer, Message message, Runnable task);
+
+    /**
+     * Returns the number of tasks waiting for a thread
+     */
+    int getQueueDepth();
+
+    /**
+     * Returns the number of threads currently running tasks
+     */
+    int getActiveCount();
+
+    /**
+     * Stops accepting tasks and lets queued tasks finish
+     */
+    void shutdown();
+}
@@ -0,0 +1,19 @@
+package com.example.amq.client.strategy;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Extracts the ordering key of a message. Messages with the same key are
+ * handled in arrival order by a StripedDispatchExecutor.
+ *
+ * @author mshin
+ *
+ */
+public interface MessageKeyExtractor {
+
+    /**
+     * Returns the key of the message, or null if it has none
+     */
+    String extractKey(Message message) throws JMSException;
+}
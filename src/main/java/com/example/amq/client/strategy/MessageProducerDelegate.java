@@ -0,0 +1,103 @@
+package com.example.amq.client.strategy;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+
+/**
+ * MessageProducer that delegates every call to another producer. Strategies
+ * extend it to change what close() does with the underlying resources, and
+ * metrics to time the sends.
+ *
+ * @author mshin
+ *
+ */
+public abstract class MessageProducerDelegate implements MessageProducer {
+
+    protected final MessageProducer producer;
+
+    protected MessageProducerDelegate(MessageProducer producer) {
+        this.producer = producer;
+    }
+
+    @Override
+    public void setDisableMessageID(boolean value) throws JMSException {
+        producer.setDisableMessageID(value);
+    }
+
+    @Override
+    public boolean getDisableMessageID() throws JMSException {
+        return producer.getDisableMessageID();
+    }
+
+    @Override
+    public void setDisableMessageTimestamp(boolean value) throws JMSException {
+        producer.setDisableMessageTimestamp(value);
+    }
+
+    @Override
+    public boolean getDisableMessageTimestamp() throws JMSException {
+        return producer.getDisableMessageTimestamp();
+    }
+
+    @Override
+    public void setDeliveryMode(int deliveryMode) throws JMSException {
+        producer.setDeliveryMode(deliveryMode);
+    }
+
+    @Override
+    public int getDeliveryMode() throws JMSException {
+        return producer.getDeliveryMode();
+    }
+
+    @Override
+    public void setPriority(int defaultPriority) throws JMSException {
+        producer.setPriority(defaultPriority);
+    }
+
+    @Override
+    public int getPriority() throws JMSException {
+        return producer.getPriority();
+    }
+
+    @Override
+    public void setTimeToLive(long timeToLive) throws JMSException {
+        producer.setTimeToLive(timeToLive);
+    }
+
+    @Override
+    public long getTimeToLive() throws JMSException {
+        return producer.getTimeToLive();
+    }
+
+    @Override
+    public Destination getDestination() throws JMSException {
+        return producer.getDestination();
+    }
+
+    @Override
+    public void send(Message message) throws JMSException {
+        producer.send(message);
+    }
+
+    @Override
+    public void send(Message message, int deliveryMode, int priority,
+            long timeToLive) throws JMSException {
+        producer.send(message, deliveryMode, priority, timeToLive);
+    }
+
+    @Override
+    public void send(Destination destination, Message message)
+            throws JMSException {
+        producer.send(destination, message);
+    }
+
+    @Override
+    public void send(Destination destination, Message message,
+            int deliveryMode, int priority, long timeToLive)
+            throws JMSException {
+        producer.send(destination, message, deliveryMode, priority,
+                timeToLive);
+    }
+}
@@ -0,0 +1,755 @@
+package com.example.amq.client.strategy;
+
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.ActiveMQSession;
+import org.apache.activemq.BlobMessage;
+import org.apache.activemq.jms.pool.PooledSession;
+import org.apache.activemq.pool.PooledConnectionFactory;
+
+import com.example.amq.client.AMQBroker;
+import com.example.amq.client.AsyncProducer;
+import com.example.amq.client.BatchConsumer;
+import com.example.amq.client.BatchMessageHandler;
+import com.example.amq.client.BlobConsumer;
+import com.example.amq.client.BlobSink;
+import com.example.amq.client.BatchingProducer;
+import com.example.amq.client.MessageHandler;
+import com.example.amq.exception.AMQBrokerException;
+import com.example.amq.exception.MethodNotImplementedException;
+
+/**
+ * Pooled strategy for an AMQ client. Wraps the ActiveMQConnectionFactory in an
+ * activemq-pool PooledConnectionFactory so that connections, sessions and
+ * (optionally) producers are reused across calls instead of being created for
+ * every request.
+ *
+ * Producers returned by getProducer() own a session borrowed from the pool;
+ * closing the producer returns the session to the pool. Sessions returned by
+ * getSession() are borrowed as well and must be closed by the caller.
+ *
+ * @author mshin
+ *
+ */
+public class PooledBrokerClientStrategy implements BrokerClientStrategy {
+
+    /**
+     * Default timeout for messages
+     */
+    private static final long DEFAULT_MESSAGE_TTL = 60000;
+
+    // Default values
+    private static final int DEFAULT_MAX_CONNECTIONS = 1;
+    private static final int DEFAULT_MAXIMUM_ACTIVE_SESSION_PER_CONNECTION = 500;
+    private static final boolean DEFAULT_USE_ANONYMOUS_PRODUCERS = true;
+    private static final AcknowledgeMode DEFAULT_ACKNOWLEDGE_MODE = AcknowledgeMode.AUTO;
+
+    private AMQBroker broker;
+
+    private final int maxConnections;
+    private final int maximumActiveSessionPerConnection;
+    private final boolean useAnonymousProducers;
+    private final AcknowledgeMode acknowledgeMode;
+    private final long optimizeAcknowledgeTimeOut;
+
+    private PooledConnectionFactory pooledConnectionFactory;
+
+    /**
+     * Registry key of the connection used for consumers
+     */
+    private static final String DEFAULT_KEY = "default";
+
+    // destination name prefixes, as in ActiveMQ destination URIs
+    private static final String QUEUE_PREFIX = "queue://";
+    private static final String TOPIC_PREFIX = "topic://";
+
+    /**
+     * Sequence for unique registry keys of consumers and their sessions
+     */
+    private final AtomicLong registrySequence = new AtomicLong();
+
+    /**
+     * Acknowledgements of listening consumers that failed
+     */
+    private final AtomicLong acknowledgeFailures = new AtomicLong();
+
+    /**
+     * Message processing thread pool
+     */
+    private final MessageDispatcher messageDispatcher;
+
+    /**
+     * Returns a PooledBrokerClientStrategy with the default pool settings
+     */
+    public PooledBrokerClientStrategy() {
+        this(DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_MAXIMUM_ACTIVE_SESSION_PER_CONNECTION,
+                DEFAULT_USE_ANONYMOUS_PRODUCERS);
+    }
+
+    /**
+     * Returns a PooledBrokerClientStrategy with the default pool settings
+     * whose consumer sessions acknowledge with the given mode
+     */
+    public PooledBrokerClientStrategy(AcknowledgeMode acknowledgeMode,
+            long optimizeAcknowledgeTimeOut) {
+        this(DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_MAXIMUM_ACTIVE_SESSION_PER_CONNECTION,
+                DEFAULT_USE_ANONYMOUS_PRODUCERS, new DispatchExecutor(),
+                acknowledgeMode, optimizeAcknowledgeTimeOut);
+    }
+
+    /**
+     * Returns a PooledBrokerClientStrategy with the given pool settings.
+     * useAnonymousProducers=true caches a single producer per pooled session.
+     */
+    public PooledBrokerClientStrategy(int maxConnections,
+            int maximumActiveSessionPerConnection, boolean useAnonymousProducers) {
+        this(maxConnections, maximumActiveSessionPerConnection,
+                useAnonymousProducers, new DispatchExecutor());
+    }
+
+    /**
+     * Returns a PooledBrokerClientStrategy with the given pool settings that
+     * runs MessageHandlers of listening consumers on the given
+     * MessageDispatcher
+     */
+    public PooledBrokerClientStrategy(int maxConnections,
+            int maximumActiveSessionPerConnection,
+            boolean useAnonymousProducers, MessageDispatcher messageDispatcher) {
+        this(maxConnections, maximumActiveSessionPerConnection,
+                useAnonymousProducers, messageDispatcher,
+                DEFAULT_ACKNOWLEDGE_MODE,
+                AcknowledgeMode.DEFAULT_OPTIMIZE_ACKNOWLEDGE_TIMEOUT);
+    }
+
+    /**
+     * Returns a PooledBrokerClientStrategy whose consumer sessions
+     * acknowledge with acknowledgeMode. Producer sessions are unaffected.
+     * optimizeAcknowledgeTimeOut is the longest time in milliseconds an
+     * acknowledgement is held back with OPTIMIZED.
+     */
+    public PooledBrokerClientStrategy(int maxConnections,
+            int maximumActiveSessionPerConnection,
+            boolean useAnonymousProducers, MessageDispatcher messageDispatcher,
+            AcknowledgeMode acknowledgeMode, long optimizeAcknowledgeTimeOut) {
+        this.messageDispatcher = messageDispatcher;
+        this.acknowledgeMode = (null == acknowledgeMode ? DEFAULT_ACKNOWLEDGE_MODE
+                : acknowledgeMode);
+        this.optimizeAcknowledgeTimeOut = optimizeAcknowledgeTimeOut;
+        this.maxConnections = (maxConnections < 1 ? 1 : maxConnections);
+        this.maximumActiveSessionPerConnection = (maximumActiveSessionPerConnection < 1 ? 1
+                : maximumActiveSessionPerConnection);
+        this.useAnonymousProducers = useAnonymousProducers;
+    }
+
+    @Override
+    public void init(Object... objects) throws AMQBrokerException {
+
+        broker.setCollections(new ConcurrentHashMap<String, Connection>(1),
+                new ConcurrentHashMap<String, Session>(),
+                new ConcurrentHashMap<String, MessageConsumer>(),
+                new ConcurrentHashMap<String, MessageProducer>(),
+                new ConcurrentHashMap<String, Destination>());
+
+        ActiveMQConnectionFactory connectionFactory = (ActiveMQConnectionFactory) objects[0];
+
+        connectionFactory.setConnectionIDPrefix(connectionFactory.getUserName()
+                + ".");
+        if (AcknowledgeMode.OPTIMIZED == acknowledgeMode) {
+            connectionFactory.setOptimizeAcknowledge(true);
+            connectionFactory
+                    .setOptimizeAcknowledgeTimeOut(optimizeAcknowledgeTimeOut);
+        }
+
+        pooledConnectionFactory = new PooledConnectionFactory(connectionFactory);
+        pooledConnectionFactory.setMaxConnections(maxConnections);
+        pooledConnectionFactory
+                .setMaximumActiveSessionPerConnection(maximumActiveSessionPerConnection);
+        pooledConnectionFactory.setUseAnonymousProducers(useAnonymousProducers);
+        pooledConnectionFactory.setBlockIfSessionPoolIsFull(true);
+        pooledConnectionFactory.start();
+
+        // The registered connection is used for consumers, which need a
+        // started connection and hold on to their session.
+        Connection connection;
+        try {
+            connection = pooledConnectionFactory.createConnection();
+            broker.getConnections().put(DEFAULT_KEY, connection);
+        } catch (JMSException e) {
+            throw new AMQBrokerException("Connection creation failed: "
+                    + e.getMessage());
+        }
+
+        try {
+            connection.start();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("Starting connection failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the pooled connection registered with this strategy.
+     */
+    @Override
+    public Connection getConnection() {
+        return broker.getConnections().get(DEFAULT_KEY);
+    }
+
+    /**
+     * Not implemented with this implementation of AMQ Client Jar.
+     */
+    @Override
+    public Connection getConnection(String username, String password)
+            throws MethodNotImplementedException {
+        throw new MethodNotImplementedException(
+                "Cannot get connection with specific username and password using this implementation");
+    }
+
+    /**
+     * Returns a Session borrowed from the pool. The caller must close the
+     * session to return it to the pool.
+     */
+    @Override
+    public Session getSession() throws AMQBrokerException {
+        try {
+            return getConnection().createSession(false,
+                    Session.AUTO_ACKNOWLEDGE);
+        } catch (JMSException e) {
+            throw new AMQBrokerException("Session creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a pooled Destination, or a new Destination if one is not found in
+     * the pool. Names are queues, unless prefixed with topic://.
+     */
+    @Override
+    public Destination getDestination(String queueName)
+            throws AMQBrokerException {
+        if (queueName.startsWith(TOPIC_PREFIX)) {
+            return getTopic(queueName.substring(TOPIC_PREFIX.length()));
+        }
+        if (queueName.startsWith(QUEUE_PREFIX)) {
+            queueName = queueName.substring(QUEUE_PREFIX.length());
+        }
+        Destination destination = broker.getDestinations().get(queueName);
+        if (null == destination) {
+            Session session = getSession();
+            try {
+                destination = session.createQueue(queueName);
+            } catch (JMSException e) {
+                throw new AMQBrokerException("Destination creation failed: "
+                        + e.getMessage());
+            } finally {
+                release(session);
+            }
+            // another thread may have created the same destination first
+            Destination existing = broker.getDestinations().putIfAbsent(
+                    queueName, destination);
+            if (null != existing) {
+                destination = existing;
+            }
+        }
+
+        return destination;
+    }
+
+    /**
+     * Returns a pooled Topic, or a new Topic if one is not found in the pool.
+     * Topics are pooled under their topic:// name.
+     */
+    @Override
+    public Destination getTopic(String topicName) throws AMQBrokerException {
+        String key = TOPIC_PREFIX + topicName;
+        Destination topic = broker.getDestinations().get(key);
+        if (null == topic) {
+            Session session = getSession();
+            try {
+                topic = session.createTopic(topicName);
+            } catch (JMSException e) {
+                throw new AMQBrokerException("Topic creation failed: "
+                        + e.getMessage());
+            } finally {
+                release(session);
+            }
+            Destination existing = broker.getDestinations().putIfAbsent(key,
+                    topic);
+            if (null != existing) {
+                topic = existing;
+            }
+        }
+        return topic;
+    }
+
+    /**
+     * Returns a MessageProducer on a session borrowed from the pool. Closing
+     * the producer returns its session to the pool. With
+     * useAnonymousProducers=true the underlying producer is cached by the
+     * pooled session, so no broker round trip is needed per call.
+     */
+    @Override
+    public MessageProducer getProducer(Destination destination)
+            throws AMQBrokerException {
+        Connection connection = null;
+        Session session = null;
+        try {
+            connection = pooledConnectionFactory.createConnection();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(destination);
+            producer.setTimeToLive(DEFAULT_MESSAGE_TTL);
+            return new SessionReleasingProducer(producer, session, connection);
+        } catch (JMSException e) {
+            release(session);
+            release(connection);
+            throw new AMQBrokerException("Producer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a BatchingProducer on a transacted session borrowed from the
+     * pool. Closing the producer returns the session to the pool.
+     */
+    @Override
+    public BatchingProducer getBatchingProducer(Destination destination,
+            int maxBatchSize, long maxLingerMillis) throws AMQBrokerException {
+        try {
+            Session session = getConnection().createSession(true,
+                    Session.SESSION_TRANSACTED);
+            return new BatchingProducer(session, destination, maxBatchSize,
+                    maxLingerMillis, DEFAULT_MESSAGE_TTL);
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BatchingProducer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns an AsyncProducer on a session borrowed from the pool. The
+     * producer is created on the underlying ActiveMQSession, since pooled
+     * producers do not support completion callbacks. Closing the producer
+     * returns the session to the pool.
+     */
+    @Override
+    public AsyncProducer getAsyncProducer(Destination destination,
+            int maxInFlightMessages, long maxInFlightBytes)
+            throws AMQBrokerException {
+        Session session = getSession();
+        try {
+            Session internalSession = ((PooledSession) session)
+                    .getInternalSession();
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) internalSession
+                    .createProducer(destination);
+            producer.setTimeToLive(DEFAULT_MESSAGE_TTL);
+            return new AsyncProducer(session, producer, maxInFlightMessages,
+                    maxInFlightBytes);
+        } catch (JMSException e) {
+            release(session);
+            throw new AMQBrokerException("AsyncProducer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Always returns a new MessageConsumer. The consumer keeps its session
+     * until the strategy is closed. It is created on the underlying
+     * ActiveMQSession, so a DispatchExecutor can pause it; a pooled consumer
+     * cannot be stopped.
+     */
+    @Override
+    public MessageConsumer getConsumer(Destination destination)
+            throws AMQBrokerException {
+
+        try {
+            Session session = getConnection().createSession(false,
+                    acknowledgeMode.getSessionMode());
+            String key = registryKey(destination);
+            broker.getSessions().put(key, session);
+            MessageConsumer consumer = ((PooledSession) session)
+                    .getInternalSession().createConsumer(destination);
+            broker.getMessageConsumers().put(key, consumer);
+            return consumer;
+        } catch (JMSException e) {
+            throw new AMQBrokerException("Consumer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Always returns a new MessageConsumer. Adds a listener to the consumer
+     * where: listener.onMessage() method calls handler.handleMessage().
+     */
+    @Override
+    public MessageConsumer getListeningConsumer(Destination destination,
+            MessageHandler messageHandler) throws JMSException {
+        return listen(getConsumer(destination), messageHandler);
+    }
+
+    @Override
+    public MessageConsumer listen(final MessageConsumer consumer,
+            final MessageHandler messageHandler) throws JMSException {
+        if (AcknowledgeMode.CLIENT == acknowledgeMode) {
+            // messages still queued in the dispatcher would be settled too
+            throw new AMQBrokerException(
+                    "Listening failed: CLIENT acknowledgement is not supported"
+                            + " with a MessageDispatcher, use INDIVIDUAL");
+        }
+
+        consumer.setMessageListener(new MessageListener() {
+
+            @Override
+            public void onMessage(final Message message) {
+                messageDispatcher.dispatch(consumer, message, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        messageHandler.handleMessage(message);
+                        try {
+                            acknowledgeMode.acknowledge(message);
+                        } catch (JMSException e) {
+                            acknowledgeFailures.incrementAndGet();
+                        }
+                    }
+                });
+            }
+
+        });
+        return consumer;
+    }
+
+    /**
+     * Same as getConsumer, which already gives every consumer its own session.
+     */
+    @Override
+    public MessageConsumer getSessionConsumer(Destination destination)
+            throws AMQBrokerException {
+        return getConsumer(destination);
+    }
+
+    /**
+     * Always returns a new durable subscriber on its own session. The
+     * subscriber keeps its session until the strategy is closed; the
+     * subscription itself outlives it. Like getConsumer, it is created on the
+     * underlying ActiveMQSession.
+     */
+    @Override
+    public MessageConsumer getDurableSubscriber(Destination topic,
+            String subscriptionName) throws AMQBrokerException {
+        if (!(topic instanceof Topic)) {
+            throw new AMQBrokerException("Durable subscriber creation failed: "
+                    + topic + " is not a topic");
+        }
+
+        try {
+            Session session = getConnection().createSession(false,
+                    acknowledgeMode.getSessionMode());
+            String key = registryKey(topic);
+            broker.getSessions().put(key, session);
+            MessageConsumer consumer = ((PooledSession) session)
+                    .getInternalSession().createDurableSubscriber(
+                            (Topic) topic, subscriptionName);
+            broker.getMessageConsumers().put(key, consumer);
+            return consumer;
+        } catch (JMSException e) {
+            throw new AMQBrokerException("Durable subscriber creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Always returns a new BatchConsumer on its own pooled session, which is
+     * held until the strategy is closed.
+     */
+    @Override
+    public BatchConsumer getBatchConsumer(Destination destination,
+            BatchMessageHandler batchHandler, int maxBatchSize,
+            long maxLingerMillis, boolean transacted) throws AMQBrokerException {
+        try {
+            Session session = getConnection().createSession(
+                    transacted,
+                    (transacted ? Session.SESSION_TRANSACTED
+                            : Session.CLIENT_ACKNOWLEDGE));
+            String key = registryKey(destination);
+            broker.getSessions().put(key, session);
+            BatchConsumer batchConsumer = new BatchConsumer(session,
+                    destination, batchHandler, maxBatchSize, maxLingerMillis,
+                    transacted);
+            broker.getMessageConsumers().put(key,
+                    batchConsumer.getMessageConsumer());
+            return batchConsumer;
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BatchConsumer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Always returns a new BlobConsumer on its own pooled session, which is
+     * held until the strategy is closed.
+     */
+    @Override
+    public BlobConsumer getBlobConsumer(Destination destination,
+            BlobSink sink, int maxConcurrentDownloads, int bufferSize)
+            throws AMQBrokerException {
+        try {
+            Session session = getConnection().createSession(false,
+                    ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+            String key = registryKey(destination);
+            broker.getSessions().put(key, session);
+            BlobConsumer blobConsumer = new BlobConsumer(session, destination,
+                    sink, maxConcurrentDownloads, bufferSize);
+            broker.getMessageConsumers().put(key,
+                    blobConsumer.getMessageConsumer());
+            return blobConsumer;
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BlobConsumer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    @Override
+    public BytesMessage createBytesMessage() throws AMQBrokerException {
+        Session session = getSession();
+        try {
+            return session.createBytesMessage();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BytesMessage creation failed: "
+                    + e.getMessage());
+        } finally {
+            release(session);
+        }
+    }
+
+    @Override
+    public ObjectMessage createObjectMessage() throws AMQBrokerException {
+        Session session = getSession();
+        try {
+            return session.createObjectMessage();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("ObjectMessage creation failed: "
+                    + e.getMessage());
+        } finally {
+            release(session);
+        }
+    }
+
+    @Override
+    public TextMessage createTextMessage() throws AMQBrokerException {
+        Session session = getSession();
+        try {
+            return session.createTextMessage();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("TextMessage creation failed: "
+                    + e.getMessage());
+        } finally {
+            release(session);
+        }
+    }
+
+    @Override
+    public MapMessage createMapMessage() throws AMQBrokerException {
+        Session session = getSession();
+        try {
+            return session.createMapMessage();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("MapMessage creation failed: "
+                    + e.getMessage());
+        } finally {
+            release(session);
+        }
+    }
+
+    @Override
+    public StreamMessage createStreamMessage() throws AMQBrokerException {
+        Session session = getSession();
+        try {
+            return session.createStreamMessage();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("StreamMessage creation failed: "
+                    + e.getMessage());
+        } finally {
+            release(session);
+        }
+    }
+
+    /**
+     * BlobMessages need the underlying ActiveMQSession, so it is unwrapped from
+     * the borrowed PooledSession.
+     */
+    @Override
+    public BlobMessage createBlobMessage(InputStream inputStream)
+            throws AMQBrokerException {
+        Session session = getSession();
+        try {
+            Session internalSession = ((PooledSession) session)
+                    .getInternalSession();
+            return ((ActiveMQSession) internalSession)
+                    .createBlobMessage(inputStream);
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BlobMessage creation failed: "
+                    + e.getMessage());
+        } finally {
+            release(session);
+        }
+    }
+
+    @Override
+    public void close() throws AMQBrokerException {
+
+        for (MessageConsumer consumer : broker.getMessageConsumers().values()) {
+            if (null != consumer) {
+                try {
+                    consumer.close();
+                } catch (JMSException e) {
+                    throw new AMQBrokerException("Consumer closing failed: "
+                            + e.getMessage());
+                }
+            }
+        }
+
+        for (Session session : broker.getSessions().values()) {
+            release(session);
+        }
+
+        try {
+            getConnection().close();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("Connection closing failed: "
+                    + e.getMessage());
+        }
+
+        messageDispatcher.shutdown();
+        pooledConnectionFactory.stop();
+    }
+
+    @Override
+    public void setBroker(AMQBroker broker) {
+        this.broker = broker;
+    }
+
+    /**
+     * Returns the executor running MessageHandlers of listening consumers
+     */
+    @Override
+    public MessageDispatcher getMessageDispatcher() {
+        return messageDispatcher;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaximumActiveSessionPerConnection() {
+        return maximumActiveSessionPerConnection;
+    }
+
+    public boolean isUseAnonymousProducers() {
+        return useAnonymousProducers;
+    }
+
+    public AcknowledgeMode getAcknowledgeMode() {
+        return acknowledgeMode;
+    }
+
+    /**
+     * Returns the number of messages whose acknowledgement failed after their
+     * MessageHandler returned. The broker redelivers them once the session
+     * recovers or closes.
+     */
+    public long getAcknowledgeFailureCount() {
+        return acknowledgeFailures.get();
+    }
+
+    public long getOptimizeAcknowledgeTimeOut() {
+        return optimizeAcknowledgeTimeOut;
+    }
+
+    /**
+     * Returns a unique registry key for an object on the given destination
+     */
+    private String registryKey(Destination destination) {
+        return String.valueOf(destination) + "#"
+                + registrySequence.incrementAndGet();
+    }
+
+    /**
+     * Returns a pooled session, ignoring failures since the pool discards
+     * broken sessions on its own.
+     */
+    private static void release(Session session) {
+        if (null != session) {
+            try {
+                session.close();
+            } catch (JMSException e) {
+                // pool invalidates the session
+            }
+        }
+    }
+
+    /**
+     * Returns a pooled connection, ignoring failures since the pool discards
+     * broken connections on its own.
+     */
+    private static void release(Connection connection) {
+        if (null != connection) {
+            try {
+                connection.close();
+            } catch (JMSException e) {
+                // pool invalidates the connection
+            }
+        }
+    }
+
+    /**
+     * MessageProducer that returns its pooled session and connection when
+     * closed.
+     *
+     * @author mshin
+     *
+     */
+    private static class SessionReleasingProducer extends
+            MessageProducerDelegate {
+
+        private final Session session;
+        private final Connection connection;
+
+        public SessionReleasingProducer(MessageProducer producer,
+                Session session, Connection connection) {
+            super(producer);
+            this.session = session;
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() throws JMSException {
+            try {
+                producer.close();
+            } finally {
+                release(session);
+                release(connection);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.amq.client.strategy;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+
+/**
+ * LRU cache of MessageProducers keyed by destination. Holds at most maxSize
+ * producers; the least recently used one is evicted when another is added, and
+ * producers unused for maxIdleMillis are evicted on the next lookup. Every
+ * get or put hands out a reference that the caller gives back with release.
+ * An evicted producer is only closed once no caller holds it any more, or by
+ * clear, so eviction never closes a producer under a caller's feet. Cached
+ * producers are mirrored into the broker's producer registry so that closing
+ * the strategy closes them.
+ *
+ * @author mshin
+ *
+ */
+public class ProducerCache {
+
+    private final int maxSize;
+    private final long maxIdleMillis;
+    private final ConcurrentMap<String, MessageProducer> registry;
+
+    /**
+     * Access ordered, so the eldest entry is the least recently used
+     */
+    private final LinkedHashMap<String, CachedProducer> producers;
+
+    /**
+     * Evicted producers still held by callers
+     */
+    private final Map<MessageProducer, CachedProducer> retired = new IdentityHashMap<MessageProducer, CachedProducer>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Returns a ProducerCache that mirrors its contents into the given
+     * registry. maxIdleMillis <= 0 disables idle eviction.
+     */
+    public ProducerCache(int maxSize, long maxIdleMillis,
+            ConcurrentMap<String, MessageProducer> registry) {
+        this.maxSize = (maxSize < 1 ? 1 : maxSize);
+        this.maxIdleMillis = maxIdleMillis;
+        this.registry = registry;
+        this.producers = new LinkedHashMap<String, CachedProducer>(16, 0.75f,
+                true);
+    }
+
+    /**
+     * Returns the cached producer for the key, or null if there is none. A
+     * returned producer must be given back with release.
+     */
+    public synchronized MessageProducer get(String key) {
+        long now = System.currentTimeMillis();
+        evictIdle(now);
+
+        CachedProducer cached = producers.get(key);
+        if (null == cached) {
+            misses++;
+            return null;
+        }
+        hits++;
+        cached.lastUsed = now;
+        cached.references++;
+        return cached.producer;
+    }
+
+    /**
+     * Caches the producer under the key and returns it, or closes it and
+     * returns the already cached one if another thread got there first. The
+     * returned producer must be given back with release.
+     */
+    public synchronized MessageProducer put(String key,
+            MessageProducer producer) {
+        CachedProducer cached = producers.get(key);
+        if (null != cached) {
+            close(producer);
+            cached.lastUsed = System.currentTimeMillis();
+            cached.references++;
+            return cached.producer;
+        }
+
+        producers.put(key, new CachedProducer(key, producer));
+        registry.put(key, producer);
+
+        Iterator<Entry<String, CachedProducer>> iterator = producers
+                .entrySet().iterator();
+        while (producers.size() > maxSize && iterator.hasNext()) {
+            evict(iterator, iterator.next());
+        }
+        return producer;
+    }
+
+    /**
+     * Gives back a producer returned by get or put. An evicted producer is
+     * closed when its last holder gives it back.
+     */
+    public synchronized void release(String key, MessageProducer producer) {
+        CachedProducer cached = producers.get(key);
+        if (null != cached && cached.producer == producer) {
+            cached.references--;
+            cached.lastUsed = System.currentTimeMillis();
+            return;
+        }
+
+        cached = retired.get(producer);
+        if (null != cached && --cached.references <= 0) {
+            retired.remove(producer);
+            close(producer);
+        }
+    }
+
+    /**
+     * Closes and removes every cached producer, including evicted ones still
+     * held by callers
+     */
+    public void clear() {
+        clear("");
+    }
+
+    /**
+     * Closes and removes the cached producers whose key starts with keyPrefix,
+     * including evicted ones still held by callers
+     */
+    public synchronized void clear(String keyPrefix) {
+        Iterator<Entry<String, CachedProducer>> iterator = producers
+                .entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<String, CachedProducer> entry = iterator.next();
+            if (entry.getKey().startsWith(keyPrefix)) {
+                iterator.remove();
+                registry.remove(entry.getKey(), entry.getValue().producer);
+                close(entry.getValue().producer);
+            }
+        }
+
+        Iterator<CachedProducer> retiredIterator = retired.values()
+                .iterator();
+        while (retiredIterator.hasNext()) {
+            CachedProducer cached = retiredIterator.next();
+            if (cached.key.startsWith(keyPrefix)) {
+                retiredIterator.remove();
+                close(cached.producer);
+            }
+        }
+    }
+
+    /**
+     * Evicts producers that have not been used for maxIdleMillis. Walks from
+     * the least recently used entry and stops at the first one used since;
+     * producers held by callers are not idle and are skipped.
+     */
+    private void evictIdle(long now) {
+        if (maxIdleMillis <= 0) {
+            return;
+        }
+        Iterator<Entry<String, CachedProducer>> iterator = producers
+                .entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<String, CachedProducer> entry = iterator.next();
+            if (entry.getValue().references > 0) {
+                continue;
+            }
+            if (now - entry.getValue().lastUsed < maxIdleMillis) {
+                return;
+            }
+            evict(iterator, entry);
+        }
+    }
+
+    private void evict(Iterator<Entry<String, CachedProducer>> iterator,
+            Entry<String, CachedProducer> entry) {
+        iterator.remove();
+        CachedProducer cached = entry.getValue();
+        registry.remove(entry.getKey(), cached.producer);
+        if (cached.references > 0) {
+            retired.put(cached.producer, cached);
+        } else {
+            close(cached.producer);
+        }
+        evictions++;
+    }
+
+    private static void close(MessageProducer producer) {
+        try {
+            producer.close();
+        } catch (JMSException e) {
+            // producer is discarded either way
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return producers.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    /**
+     * Producer with the time it was last used and the number of callers
+     * holding it
+     */
+    private static class CachedProducer {
+
+        private final String key;
+        private final MessageProducer producer;
+        private long lastUsed;
+        private int references = 1;
+
+        public CachedProducer(String key, MessageProducer producer) {
+            this.key = key;
+            this.producer = producer;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+}
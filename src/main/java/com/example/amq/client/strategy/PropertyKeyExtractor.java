@@ -0,0 +1,44 @@
+package com.example.amq.client.strategy;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * MessageKeyExtractor that reads the key from a message property, JMSXGroupID
+ * by default
+ *
+ * @author mshin
+ *
+ */
+public class PropertyKeyExtractor implements MessageKeyExtractor {
+
+    /**
+     * JMS defined property for message groups
+     */
+    public static final String JMSX_GROUP_ID = "JMSXGroupID";
+
+    private final String propertyName;
+
+    /**
+     * Returns a PropertyKeyExtractor on the JMSXGroupID property
+     */
+    public PropertyKeyExtractor() {
+        this(JMSX_GROUP_ID);
+    }
+
+    /**
+     * Returns a PropertyKeyExtractor on the given property
+     */
+    public PropertyKeyExtractor(String propertyName) {
+        this.propertyName = propertyName;
+    }
+
+    @Override
+    public String extractKey(Message message) throws JMSException {
+        return message.getStringProperty(propertyName);
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+}
@@ -1,12 +1,9 @@
 package com.example.amq.client.strategy;
 
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jms.BytesMessage;
 import javax.jms.Connection;
@@ -21,19 +18,28 @@ import javax.jms.ObjectMessage;
 import javax.jms.Session;
 import javax.jms.StreamMessage;
 import javax.jms.TextMessage;
+import javax.jms.Topic;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQMessageProducer;
 import org.apache.activemq.ActiveMQSession;
 import org.apache.activemq.BlobMessage;
 
 import com.example.amq.client.AMQBroker;
+import com.example.amq.client.AsyncProducer;
+import com.example.amq.client.BatchConsumer;
+import com.example.amq.client.BatchMessageHandler;
+import com.example.amq.client.BlobConsumer;
+import com.example.amq.client.BlobSink;
+import com.example.amq.client.BatchingProducer;
 import com.example.amq.client.MessageHandler;
 import com.example.amq.exception.AMQBrokerException;
 import com.example.amq.exception.MethodNotImplementedException;
 
 /**
  * Simple strategy for an AMQ client. Uses a single connection and session.
- * session.autoAcknowledge=true, connection.alwaysSessionAsync=false.
+ * The session acknowledges with the configured AcknowledgeMode (AUTO by
+ * default), connection.alwaysSessionAsync=false.
  * 
  * @author mshin, Ian McMahon
  *
@@ -45,40 +51,133 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
      */
     private static final long DEFAULT_MESSAGE_TTL = 60000;
 
+    // Default values
+    private static final int DEFAULT_MAX_CACHED_PRODUCERS = 100;
+    static final long DEFAULT_PRODUCER_IDLE_MILLIS = 300000;
+    private static final AcknowledgeMode DEFAULT_ACKNOWLEDGE_MODE = AcknowledgeMode.AUTO;
+
     private AMQBroker broker;
 
+    /**
+     * Registry key of the single connection and session
+     */
+    static final String DEFAULT_KEY = "default";
+
+    // destination name prefixes, as in ActiveMQ destination URIs
+    private static final String QUEUE_PREFIX = "queue://";
+    private static final String TOPIC_PREFIX = "topic://";
+
+    /**
+     * Sequence for unique registry keys of consumers and producers
+     */
+    private final AtomicLong registrySequence = new AtomicLong();
+
+    /**
+     * Acknowledgements of listening consumers that failed
+     */
+    private final AtomicLong acknowledgeFailures = new AtomicLong();
+
     /**
      * Message processing thread pool
      */
-    private ExecutorService threadPool;
+    private final MessageDispatcher messageDispatcher;
+
+    private final int maxCachedProducers;
+    private final long producerIdleMillis;
+    private final AcknowledgeMode acknowledgeMode;
+    private final long optimizeAcknowledgeTimeOut;
+
+    /**
+     * Producers by destination
+     */
+    private ProducerCache producerCache;
+
+    /**
+     * Returns a SimpleBrokerClientStrategy with the default DispatchExecutor
+     */
+    public SimpleBrokerClientStrategy() {
+        this(new DispatchExecutor());
+    }
+
+    /**
+     * Returns a SimpleBrokerClientStrategy whose session acknowledges with the
+     * given mode, see SimpleBrokerClientStrategy(MessageDispatcher, int, long,
+     * AcknowledgeMode, long)
+     */
+    public SimpleBrokerClientStrategy(AcknowledgeMode acknowledgeMode,
+            long optimizeAcknowledgeTimeOut) {
+        this(new DispatchExecutor(), DEFAULT_MAX_CACHED_PRODUCERS,
+                DEFAULT_PRODUCER_IDLE_MILLIS, acknowledgeMode,
+                optimizeAcknowledgeTimeOut);
+    }
+
+    /**
+     * Returns a SimpleBrokerClientStrategy that runs MessageHandlers of
+     * listening consumers on the given MessageDispatcher
+     */
+    public SimpleBrokerClientStrategy(MessageDispatcher messageDispatcher) {
+        this(messageDispatcher, DEFAULT_MAX_CACHED_PRODUCERS,
+                DEFAULT_PRODUCER_IDLE_MILLIS);
+    }
+
+    /**
+     * Returns a SimpleBrokerClientStrategy that caches up to
+     * maxCachedProducers producers, closing those idle for producerIdleMillis
+     */
+    public SimpleBrokerClientStrategy(MessageDispatcher messageDispatcher,
+            int maxCachedProducers, long producerIdleMillis) {
+        this(messageDispatcher, maxCachedProducers, producerIdleMillis,
+                DEFAULT_ACKNOWLEDGE_MODE,
+                AcknowledgeMode.DEFAULT_OPTIMIZE_ACKNOWLEDGE_TIMEOUT);
+    }
+
+    /**
+     * Returns a SimpleBrokerClientStrategy whose session acknowledges with
+     * acknowledgeMode. optimizeAcknowledgeTimeOut is the longest time in
+     * milliseconds an acknowledgement is held back with OPTIMIZED.
+     */
+    public SimpleBrokerClientStrategy(MessageDispatcher messageDispatcher,
+            int maxCachedProducers, long producerIdleMillis,
+            AcknowledgeMode acknowledgeMode, long optimizeAcknowledgeTimeOut) {
+        this.messageDispatcher = messageDispatcher;
+        this.maxCachedProducers = maxCachedProducers;
+        this.producerIdleMillis = producerIdleMillis;
+        this.acknowledgeMode = (null == acknowledgeMode ? DEFAULT_ACKNOWLEDGE_MODE
+                : acknowledgeMode);
+        this.optimizeAcknowledgeTimeOut = optimizeAcknowledgeTimeOut;
+    }
 
     @Override
     public void init(Object... objects) throws AMQBrokerException {
 
-        broker.setCollections(new ArrayList<Entry<String, Connection>>(1),
-                new ArrayList<Entry<String, Session>>(1),
-                new ArrayList<Entry<String, MessageConsumer>>(),
-                new ArrayList<Entry<String, MessageProducer>>(),
-                new ArrayList<Entry<String, Destination>>());
+        broker.setCollections(new ConcurrentHashMap<String, Connection>(1),
+                new ConcurrentHashMap<String, Session>(1),
+                new ConcurrentHashMap<String, MessageConsumer>(),
+                new ConcurrentHashMap<String, MessageProducer>(),
+                new ConcurrentHashMap<String, Destination>());
+
+        producerCache = new ProducerCache(maxCachedProducers,
+                producerIdleMillis, broker.getMessageProducers());
 
         ActiveMQConnectionFactory connectionFactory = (ActiveMQConnectionFactory) objects[0];
 
         // We are using a single thread architecture for this strategy which
         // requires:
-        // 1 Connection, 1 Session, session.autoAcknowledge=true,
-        // alwaysSessionAsync=false.
+        // 1 Connection, 1 Session, alwaysSessionAsync=false.
         connectionFactory.setAlwaysSessionAsync(false);
+        if (AcknowledgeMode.OPTIMIZED == acknowledgeMode) {
+            connectionFactory.setOptimizeAcknowledge(true);
+            connectionFactory
+                    .setOptimizeAcknowledgeTimeOut(optimizeAcknowledgeTimeOut);
+        }
 
         connectionFactory.setConnectionIDPrefix(connectionFactory.getUserName()
                 + ".");
 
-        threadPool = Executors.newCachedThreadPool();
-
         Connection connection;
         try {
             connection = connectionFactory.createConnection();
-            broker.getConnections().add(
-                    new SimpleEntry<String, Connection>("", connection));
+            broker.getConnections().put(DEFAULT_KEY, connection);
         } catch (JMSException e) {
             throw new AMQBrokerException("Connection creation failed: "
                     + e.getMessage());
@@ -86,9 +185,8 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
 
         try {
             Session session = connection.createSession(false,
-                    Session.AUTO_ACKNOWLEDGE);
-            broker.getSessions().add(
-                    new SimpleEntry<String, Session>("", session));
+                    acknowledgeMode.getSessionMode());
+            broker.getSessions().put(DEFAULT_KEY, session);
         } catch (JMSException e) {
             throw new AMQBrokerException("Session creation failed: "
                     + e.getMessage());
@@ -108,16 +206,7 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
      */
     @Override
     public Connection getConnection() {
-        Connection connection = null;
-        Iterator<Entry<String, Connection>> iterator = broker.getConnections()
-                .iterator();
-        while (iterator.hasNext()) {
-            Entry<String, Connection> entry = iterator.next();
-            if (null != entry) {
-                connection = entry.getValue();
-            }
-        }
-        return connection;
+        return broker.getConnections().get(DEFAULT_KEY);
     }
 
     /**
@@ -134,63 +223,136 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
      * Returns the single Session used with this strategy.
      */
     @Override
-    public Session getSession() {
-        Session session = null;
-        Iterator<Entry<String, Session>> iterator = broker.getSessions()
-                .iterator();
-        while (iterator.hasNext()) {
-            Entry<String, Session> entry = iterator.next();
-            if (null != entry) {
-                session = entry.getValue();
-            }
-        }
-        return session;
+    public Session getSession() throws AMQBrokerException {
+        return broker.getSessions().get(DEFAULT_KEY);
     }
 
     /**
      * Returns a pooled Destination, or a new Destination if one is not found in
-     * the pool.
+     * the pool. Names are queues, unless prefixed with topic://.
      */
     @Override
     public Destination getDestination(String queueName)
             throws AMQBrokerException {
-        Destination destination = null;
-        Iterator<Entry<String, Destination>> iterator = broker
-                .getDestinations().iterator();
-        while (iterator.hasNext()) {
-            Entry<String, Destination> entry = iterator.next();
-            if (null != entry.getKey() && entry.getKey().equals(queueName)) {
-                destination = entry.getValue();
-            }
+        if (queueName.startsWith(TOPIC_PREFIX)) {
+            return getTopic(queueName.substring(TOPIC_PREFIX.length()));
         }
+        if (queueName.startsWith(QUEUE_PREFIX)) {
+            queueName = queueName.substring(QUEUE_PREFIX.length());
+        }
+        Destination destination = broker.getDestinations().get(queueName);
         if (null == destination) {
             try {
                 destination = broker.getSession().createQueue(queueName);
-                Entry<String, Destination> entry = new SimpleEntry<String, Destination>(
-                        queueName, destination);
-                broker.getDestinations().add(entry);
             } catch (JMSException e) {
                 throw new AMQBrokerException("Destination creation failed: "
                         + e.getMessage());
             }
+            // another thread may have created the same destination first
+            Destination existing = broker.getDestinations().putIfAbsent(
+                    queueName, destination);
+            if (null != existing) {
+                destination = existing;
+            }
         }
 
         return destination;
     }
 
     /**
-     * Always returns a new MessageProducer.
+     * Returns a pooled Topic, or a new Topic if one is not found in the pool.
+     * Topics are pooled under their topic:// name.
+     */
+    @Override
+    public Destination getTopic(String topicName) throws AMQBrokerException {
+        String key = TOPIC_PREFIX + topicName;
+        Destination topic = broker.getDestinations().get(key);
+        if (null == topic) {
+            try {
+                topic = broker.getSession().createTopic(topicName);
+            } catch (JMSException e) {
+                throw new AMQBrokerException("Topic creation failed: "
+                        + e.getMessage());
+            }
+            Destination existing = broker.getDestinations().putIfAbsent(key,
+                    topic);
+            if (null != existing) {
+                topic = existing;
+            }
+        }
+        return topic;
+    }
+
+    /**
+     * Returns the cached MessageProducer for the destination, or a new one if
+     * none is cached. Closing the returned producer gives it back to the cache;
+     * an evicted producer is closed once every caller holding it has closed
+     * it, or when the strategy is closed. Settings changed on the producer
+     * stay in effect for later callers.
      */
     @Override
     public MessageProducer getProducer(Destination destination)
             throws AMQBrokerException {
+        String key = producerKey(destination);
+        MessageProducer producer = producerCache.get(key);
+        if (null == producer) {
+            try {
+                Session session = broker.getSession();
+                producer = session.createProducer(destination);
+                producer.setTimeToLive(DEFAULT_MESSAGE_TTL);
+            } catch (JMSException e) {
+                throw new AMQBrokerException("Producer creation failed: "
+                        + e.getMessage());
+            }
+            producer = producerCache.put(key, producer);
+        }
+        return new CachedProducer(producerCache, key, producer);
+    }
+
+    /**
+     * Returns the key producers for the destination are cached under
+     */
+    protected String producerKey(Destination destination) {
+        return String.valueOf(destination);
+    }
+
+    /**
+     * Always returns a new BatchingProducer on its own transacted session.
+     * Closing the producer closes the session.
+     */
+    @Override
+    public BatchingProducer getBatchingProducer(Destination destination,
+            int maxBatchSize, long maxLingerMillis) throws AMQBrokerException {
+        try {
+            Session session = broker.getConnection().createSession(true,
+                    Session.SESSION_TRANSACTED);
+            return new BatchingProducer(session, destination, maxBatchSize,
+                    maxLingerMillis, DEFAULT_MESSAGE_TTL);
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BatchingProducer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Always returns a new AsyncProducer on its own session, so that its sends
+     * do not interleave with the shared session. Closing the producer closes
+     * the session.
+     */
+    @Override
+    public AsyncProducer getAsyncProducer(Destination destination,
+            int maxInFlightMessages, long maxInFlightBytes)
+            throws AMQBrokerException {
         try {
-            Session session = broker.getSession();
-            MessageProducer producer = session.createProducer(destination);
+            Session session = broker.getConnection().createSession(false,
+                    Session.AUTO_ACKNOWLEDGE);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session
+                    .createProducer(destination);
             producer.setTimeToLive(DEFAULT_MESSAGE_TTL);
-            return producer;
+            return new AsyncProducer(session, producer, maxInFlightMessages,
+                    maxInFlightBytes);
         } catch (JMSException e) {
-            throw new AMQBrokerException("Producer creation failed: "
+            throw new AMQBrokerException("AsyncProducer creation failed: "
                     + e.getMessage());
         }
     }
@@ -217,22 +379,130 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
      */
     @Override
     public MessageConsumer getListeningConsumer(Destination destination,
-            final MessageHandler messageHandler) throws JMSException {
+            MessageHandler messageHandler) throws JMSException {
+        return listen(getConsumer(destination), messageHandler);
+    }
 
-        MessageConsumer consumer = broker.getConsumer(destination);
+    @Override
+    public MessageConsumer listen(final MessageConsumer consumer,
+            final MessageHandler messageHandler) throws JMSException {
+        if (AcknowledgeMode.CLIENT == acknowledgeMode) {
+            // messages still queued in the dispatcher would be settled too
+            throw new AMQBrokerException(
+                    "Listening failed: CLIENT acknowledgement is not supported"
+                            + " with a MessageDispatcher, use INDIVIDUAL");
+        }
 
         consumer.setMessageListener(new MessageListener() {
 
             @Override
             public void onMessage(Message message) {
-                threadPool
-                        .submit(new MessageProcessor(message, messageHandler));
+                messageDispatcher.dispatch(consumer, message,
+                        new MessageProcessor(message, messageHandler));
             }
 
         });
         return consumer;
     }
 
+    /**
+     * Always returns a new MessageConsumer on its own session, unlike
+     * getConsumer, whose consumers share the default session and therefore
+     * one delivery thread.
+     */
+    @Override
+    public MessageConsumer getSessionConsumer(Destination destination)
+            throws AMQBrokerException {
+
+        try {
+            Session session = getConnection().createSession(false,
+                    acknowledgeMode.getSessionMode());
+            String key = registryKey(destination);
+            broker.getSessions().put(key, session);
+            MessageConsumer consumer = session.createConsumer(destination);
+            broker.getMessageConsumers().put(key, consumer);
+            return consumer;
+        } catch (JMSException e) {
+            throw new AMQBrokerException("Consumer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Always returns a new durable subscriber on its own session. The
+     * subscriber keeps its session until the strategy is closed; the
+     * subscription itself outlives it.
+     */
+    @Override
+    public MessageConsumer getDurableSubscriber(Destination topic,
+            String subscriptionName) throws AMQBrokerException {
+        if (!(topic instanceof Topic)) {
+            throw new AMQBrokerException("Durable subscriber creation failed: "
+                    + topic + " is not a topic");
+        }
+
+        try {
+            Session session = getConnection().createSession(false,
+                    acknowledgeMode.getSessionMode());
+            String key = registryKey(topic);
+            broker.getSessions().put(key, session);
+            MessageConsumer consumer = session.createDurableSubscriber(
+                    (Topic) topic, subscriptionName);
+            broker.getMessageConsumers().put(key, consumer);
+            return consumer;
+        } catch (JMSException e) {
+            throw new AMQBrokerException("Durable subscriber creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Always returns a new BatchConsumer on its own session, since the
+     * acknowledgement mode differs from the shared session.
+     */
+    @Override
+    public BatchConsumer getBatchConsumer(Destination destination,
+            BatchMessageHandler batchHandler, int maxBatchSize,
+            long maxLingerMillis, boolean transacted) throws AMQBrokerException {
+        try {
+            Session session = broker.getConnection().createSession(
+                    transacted,
+                    (transacted ? Session.SESSION_TRANSACTED
+                            : Session.CLIENT_ACKNOWLEDGE));
+            BatchConsumer batchConsumer = new BatchConsumer(session,
+                    destination, batchHandler, maxBatchSize, maxLingerMillis,
+                    transacted);
+            broker.getMessageConsumers().put(
+                    registryKey(destination), batchConsumer.getMessageConsumer());
+            return batchConsumer;
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BatchConsumer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Always returns a new BlobConsumer on its own session, since downloads
+     * finish out of order and acknowledge individually.
+     */
+    @Override
+    public BlobConsumer getBlobConsumer(Destination destination,
+            BlobSink sink, int maxConcurrentDownloads, int bufferSize)
+            throws AMQBrokerException {
+        try {
+            Session session = broker.getConnection().createSession(false,
+                    ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+            BlobConsumer blobConsumer = new BlobConsumer(session, destination,
+                    sink, maxConcurrentDownloads, bufferSize);
+            broker.getMessageConsumers().put(registryKey(destination),
+                    blobConsumer.getMessageConsumer());
+            return blobConsumer;
+        } catch (JMSException e) {
+            throw new AMQBrokerException("BlobConsumer creation failed: "
+                    + e.getMessage());
+        }
+    }
+
     @Override
     public BytesMessage createBytesMessage() throws AMQBrokerException {
         try {
@@ -303,14 +573,9 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
     @Override
     public void close() throws AMQBrokerException {
 
-        Iterator<Entry<String, MessageProducer>> producerIterator = broker
-                .getMessageProducers().iterator();
-        while (producerIterator.hasNext()) {
-            Entry<String, MessageProducer> entry = producerIterator.next();
-            MessageProducer producer = null;
-            if (null != entry){
-                producer = entry.getValue();
-            }
+        producerCache.clear();
+
+        for (MessageProducer producer : broker.getMessageProducers().values()) {
             if (null != producer) {
                 try {
                     producer.close();
@@ -321,14 +586,7 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
             }
         }
 
-        Iterator<Entry<String, MessageConsumer>> consumerIterator = broker
-                .getMessageConsumers().iterator();
-        while (consumerIterator.hasNext()) {
-            Entry<String, MessageConsumer> entry = consumerIterator.next();
-            MessageConsumer consumer = null;
-            if (null != entry){
-                consumer = entry.getValue();
-            }
+        for (MessageConsumer consumer : broker.getMessageConsumers().values()) {
             if (null != consumer) {
                 try {
                     consumer.close();
@@ -339,11 +597,13 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
             }
         }
 
-        try {
-            broker.getSession().close();
-        } catch (JMSException e) {
-            throw new AMQBrokerException("Session closing failed: "
-                    + e.getMessage());
+        for (Session session : broker.getSessions().values()) {
+            try {
+                session.close();
+            } catch (JMSException e) {
+                throw new AMQBrokerException("Session closing failed: "
+                        + e.getMessage());
+            }
         }
 
         try {
@@ -354,8 +614,48 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
 
         }
 
-        threadPool.shutdown();
+        messageDispatcher.shutdown();
+
+    }
+
+    /**
+     * Returns the producer cache, e.g. for its hit and miss counts
+     */
+    public ProducerCache getProducerCache() {
+        return producerCache;
+    }
+
+    /**
+     * Returns the executor running MessageHandlers of listening consumers
+     */
+    @Override
+    public MessageDispatcher getMessageDispatcher() {
+        return messageDispatcher;
+    }
+
+    public AcknowledgeMode getAcknowledgeMode() {
+        return acknowledgeMode;
+    }
+
+    /**
+     * Returns the number of messages whose acknowledgement failed after their
+     * MessageHandler returned. The broker redelivers them once the session
+     * recovers or closes.
+     */
+    public long getAcknowledgeFailureCount() {
+        return acknowledgeFailures.get();
+    }
 
+    public long getOptimizeAcknowledgeTimeOut() {
+        return optimizeAcknowledgeTimeOut;
+    }
+
+    /**
+     * Returns a unique registry key for an object on the given destination
+     */
+    protected String registryKey(Destination destination) {
+        return String.valueOf(destination) + "#"
+                + registrySequence.incrementAndGet();
     }
 
     @Override
@@ -382,6 +682,41 @@ public class SimpleBrokerClientStrategy implements BrokerClientStrategy {
         @Override
         public void run() {
             messageHandler.handleMessage(message);
+            try {
+                acknowledgeMode.acknowledge(message);
+            } catch (JMSException e) {
+                acknowledgeFailures.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * MessageProducer handed out from the ProducerCache. close() gives the
+     * producer back to the cache instead of closing it.
+     *
+     * @author mshin
+     *
+     */
+    private static class CachedProducer extends MessageProducerDelegate {
+
+        private final ProducerCache cache;
+        private final String key;
+        private final MessageProducer producer;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public CachedProducer(ProducerCache cache, String key,
+                MessageProducer producer) {
+            super(producer);
+            this.cache = cache;
+            this.key = key;
+            this.producer = producer;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                cache.release(key, producer);
+            }
         }
     }
 }
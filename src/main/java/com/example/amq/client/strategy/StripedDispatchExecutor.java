@@ -0,0 +1,134 @@
+package com.example.amq.client.strategy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+
+import com.example.amq.client.strategy.DispatchExecutor.SaturationPolicy;
+
+/**
+ * MessageDispatcher that preserves ordering per message key. Each key is
+ * hashed onto one of a fixed number of single threaded lanes, so messages with
+ * the same key run on the same lane in arrival order while different keys run
+ * in parallel. Messages without a key are spread round robin across the lanes.
+ *
+ * Lanes are bounded and always BLOCK when full, since running on the caller or
+ * parking messages while the consumer is paused would let later messages of a
+ * key overtake earlier ones.
+ *
+ * @author mshin
+ *
+ */
+public class StripedDispatchExecutor implements MessageDispatcher {
+
+    // Default values
+    private static final int DEFAULT_LANES = Runtime.getRuntime()
+            .availableProcessors();
+    private static final int DEFAULT_LANE_CAPACITY = 1000;
+
+    private final DispatchExecutor[] lanes;
+    private final MessageKeyExtractor keyExtractor;
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    /**
+     * Returns a StripedDispatchExecutor with one lane per processor, keyed on
+     * JMSXGroupID
+     */
+    public StripedDispatchExecutor() {
+        this(DEFAULT_LANES, DEFAULT_LANE_CAPACITY, new PropertyKeyExtractor());
+    }
+
+    /**
+     * Returns a StripedDispatchExecutor with the given number of lanes, each
+     * holding up to laneCapacity queued messages
+     */
+    public StripedDispatchExecutor(int laneCount, int laneCapacity,
+            MessageKeyExtractor keyExtractor) {
+        this.lanes = new DispatchExecutor[(laneCount < 1 ? 1 : laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new DispatchExecutor(1, 1, laneCapacity,
+                    SaturationPolicy.BLOCK);
+        }
+        this.keyExtractor = (null == keyExtractor ? new PropertyKeyExtractor()
+                : keyExtractor);
+    }
+
+    @Override
+    public void dispatch(MessageConsumer consumer, Message message,
+            Runnable task) {
+        lanes[laneOf(message)].dispatch(consumer, message, task);
+    }
+
+    /**
+     * Returns the index of the lane the message is run on
+     */
+    private int laneOf(Message message) {
+        String key = null;
+        try {
+            key = keyExtractor.extractKey(message);
+        } catch (JMSException e) {
+            // treated as a message without a key
+        }
+
+        if (null == key) {
+            return (nextLane.getAndIncrement() & Integer.MAX_VALUE)
+                    % lanes.length;
+        }
+
+        // spread the hash so keys with similar low bits use different lanes
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (DispatchExecutor lane : lanes) {
+            depth += lane.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public int getActiveCount() {
+        int active = 0;
+        for (DispatchExecutor lane : lanes) {
+            active += lane.getActiveCount();
+        }
+        return active;
+    }
+
+    @Override
+    public void shutdown() {
+        for (DispatchExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * Waits for all lanes to finish their queued messages after shutdown
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (DispatchExecutor lane : lanes) {
+            long remaining = deadline - System.nanoTime();
+            if (!lane.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public MessageKeyExtractor getKeyExtractor() {
+        return keyExtractor;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.amq.client.strategy;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import com.example.amq.client.AMQBroker;
+import com.example.amq.exception.AMQBrokerException;
+
+/**
+ * Strategy for an AMQ client that shares a single connection but gives every
+ * calling thread its own Session. Since producers, consumers and messages are
+ * all created from the calling thread's session, application threads can send
+ * in parallel without serializing on one session.
+ *
+ * Sessions are registered by thread id and live until releaseSession() is
+ * called from the owning thread or the strategy is closed, so this is meant for
+ * long-lived worker threads.
+ *
+ * @author mshin
+ *
+ */
+public class ThreadLocalSessionBrokerClientStrategy extends
+        SimpleBrokerClientStrategy {
+
+    private AMQBroker broker;
+
+    private final ThreadLocal<Session> threadSession = new ThreadLocal<Session>();
+
+    /**
+     * Returns a ThreadLocalSessionBrokerClientStrategy with the default
+     * DispatchExecutor
+     */
+    public ThreadLocalSessionBrokerClientStrategy() {
+        super();
+    }
+
+    /**
+     * Returns a ThreadLocalSessionBrokerClientStrategy with the default
+     * DispatchExecutor that caches up to maxCachedProducers producers across
+     * all threads
+     */
+    public ThreadLocalSessionBrokerClientStrategy(int maxCachedProducers) {
+        super(new DispatchExecutor(), maxCachedProducers,
+                DEFAULT_PRODUCER_IDLE_MILLIS);
+    }
+
+    /**
+     * Returns a ThreadLocalSessionBrokerClientStrategy whose sessions
+     * acknowledge with the given mode
+     */
+    public ThreadLocalSessionBrokerClientStrategy(
+            AcknowledgeMode acknowledgeMode, long optimizeAcknowledgeTimeOut) {
+        super(acknowledgeMode, optimizeAcknowledgeTimeOut);
+    }
+
+    /**
+     * Returns a ThreadLocalSessionBrokerClientStrategy that runs
+     * MessageHandlers of listening consumers on the given MessageDispatcher
+     */
+    public ThreadLocalSessionBrokerClientStrategy(
+            MessageDispatcher messageDispatcher) {
+        super(messageDispatcher);
+    }
+
+    /**
+     * Returns a ThreadLocalSessionBrokerClientStrategy that caches up to
+     * maxCachedProducers producers across all threads, closing those idle for
+     * producerIdleMillis. A producer a thread still holds is never closed by
+     * another thread's eviction; size the cache to at least the number of
+     * threads times the destinations each sends to so they do not churn.
+     */
+    public ThreadLocalSessionBrokerClientStrategy(
+            MessageDispatcher messageDispatcher, int maxCachedProducers,
+            long producerIdleMillis) {
+        super(messageDispatcher, maxCachedProducers, producerIdleMillis);
+    }
+
+    /**
+     * Returns a ThreadLocalSessionBrokerClientStrategy whose sessions
+     * acknowledge with acknowledgeMode
+     */
+    public ThreadLocalSessionBrokerClientStrategy(
+            MessageDispatcher messageDispatcher, int maxCachedProducers,
+            long producerIdleMillis, AcknowledgeMode acknowledgeMode,
+            long optimizeAcknowledgeTimeOut) {
+        super(messageDispatcher, maxCachedProducers, producerIdleMillis,
+                acknowledgeMode, optimizeAcknowledgeTimeOut);
+    }
+
+    @Override
+    public void init(Object... objects) throws AMQBrokerException {
+        super.init(objects);
+
+        // The session created by the simple strategy belongs to this thread.
+        threadSession.set(super.getSession());
+    }
+
+    /**
+     * Returns the calling thread's Session, creating it on first use.
+     */
+    @Override
+    public Session getSession() throws AMQBrokerException {
+        Session session = threadSession.get();
+        if (null == session) {
+            try {
+                session = getConnection().createSession(false,
+                        getAcknowledgeMode().getSessionMode());
+            } catch (JMSException e) {
+                throw new AMQBrokerException("Session creation failed: "
+                        + e.getMessage());
+            }
+            broker.getSessions().put(threadKey(), session);
+            threadSession.set(session);
+        }
+        return session;
+    }
+
+    /**
+     * Producers are cached per thread, since each belongs to its thread's
+     * Session.
+     */
+    @Override
+    protected String producerKey(Destination destination) {
+        return threadKey() + "/" + String.valueOf(destination);
+    }
+
+    private static String threadKey() {
+        return "thread-" + Thread.currentThread().getId();
+    }
+
+    /**
+     * Closes the calling thread's Session, if it has one. Producers cached for
+     * this thread and consumers created on it are closed as well.
+     */
+    public void releaseSession() throws AMQBrokerException {
+        Session session = threadSession.get();
+        if (null == session) {
+            return;
+        }
+        threadSession.remove();
+
+        getProducerCache().clear(threadKey() + "/");
+        broker.getSessions().values().remove(session);
+
+        try {
+            session.close();
+        } catch (JMSException e) {
+            throw new AMQBrokerException("Session closing failed: "
+                    + e.getMessage());
+        }
+    }
+
+    @Override
+    public void setBroker(AMQBroker broker) {
+        super.setBroker(broker);
+        this.broker = broker;
+    }
+}
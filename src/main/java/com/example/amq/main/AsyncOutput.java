@@ -0,0 +1,228 @@
+package com.example.amq.main;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes lines to stdout or a file from a single writer thread. Handler
+ * threads only put records on a bounded queue, blocking while it is full, so
+ * they never contend on System.out. The writer drains the queue in batches
+ * into a buffer that is written to the channel when it fills up and at least
+ * every flush interval; with an interval of 0 it is written whenever the
+ * queue runs empty.
+ *
+ * @author mshin
+ *
+ */
+class AsyncOutput {
+
+    // Default values
+    static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * Marks the end of the output for the writer thread
+     */
+    private static final Object END = new Object();
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(
+            StandardCharsets.UTF_8);
+
+    private final BlockingQueue<Object> records;
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final long flushIntervalNanos;
+    private final ByteBuffer buffer = ByteBuffer
+            .allocateDirect(DEFAULT_BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8
+            .newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final Thread writer;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Writes to the file, appending to it if it exists, or to stdout if file
+     * is null
+     */
+    AsyncOutput(Path file, long flushIntervalMillis) throws IOException {
+        if (null == file) {
+            this.channel = Channels.newChannel(new FileOutputStream(
+                    FileDescriptor.out));
+            this.closeChannel = false;
+        } else {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.closeChannel = true;
+        }
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS
+                .toNanos(flushIntervalMillis < 0 ? 0 : flushIntervalMillis);
+        this.records = new ArrayBlockingQueue<Object>(DEFAULT_QUEUE_CAPACITY);
+
+        this.writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                write();
+            }
+        }, "AsyncOutput");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a line of text
+     */
+    void println(String line) {
+        enqueue(line);
+    }
+
+    /**
+     * Queues a line of raw bytes. The array must not be modified afterwards.
+     */
+    void println(byte[] line) {
+        enqueue(line);
+    }
+
+    private void enqueue(Object record) {
+        if (closed) {
+            return;
+        }
+        try {
+            records.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes out everything queued so far and stops the writer thread
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            records.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (closeChannel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Output close failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Loop of the writer thread
+     */
+    private void write() {
+        List<Object> batch = new ArrayList<Object>(MAX_BATCH);
+        long lastFlush = System.nanoTime();
+        try {
+            while (true) {
+                Object first;
+                if (0 == buffer.position()) {
+                    first = records.take();
+                } else {
+                    long wait = flushIntervalNanos
+                            - (System.nanoTime() - lastFlush);
+                    first = (wait > 0 ? records.poll(wait,
+                            TimeUnit.NANOSECONDS) : null);
+                    if (null == first) {
+                        flush();
+                        lastFlush = System.nanoTime();
+                        continue;
+                    }
+                }
+
+                batch.add(first);
+                records.drainTo(batch, MAX_BATCH - 1);
+                for (Object record : batch) {
+                    if (END == record) {
+                        flush();
+                        return;
+                    }
+                    append(record);
+                }
+                batch.clear();
+
+                if (0 == flushIntervalNanos && records.isEmpty()) {
+                    flush();
+                    lastFlush = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            closed = true;
+            records.clear();
+            System.err.println("Output write failed: " + e.getMessage());
+        }
+    }
+
+    private void append(Object record) throws IOException {
+        if (record instanceof String) {
+            CharBuffer chars = CharBuffer.wrap((String) record);
+            encoder.reset();
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow()) {
+                    flush();
+                } else {
+                    break;
+                }
+            }
+            while (encoder.flush(buffer).isOverflow()) {
+                flush();
+            }
+        } else {
+            appendBytes((byte[]) record);
+        }
+        appendBytes(NEWLINE);
+    }
+
+    private void appendBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.amq.main;
+
+import java.nio.ByteBuffer;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Decodes a JMS message into a binary payload, without going through a
+ * String. The payload is written to reuse if it is large enough, otherwise to
+ * a new buffer, and the buffer holding it is returned with the payload
+ * between position 0 and its limit. A single instance is created at startup
+ * and shared by all handler threads, so implementations must be thread-safe.
+ *
+ * @author mshin
+ *
+ */
+public interface BinaryMessageDecoder {
+    ByteBuffer decode(Message message, ByteBuffer reuse) throws JMSException;
+}
@@ -0,0 +1,22 @@
+package com.example.amq.main;
+
+import java.nio.ByteBuffer;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import com.example.amq.client.Broker;
+
+/**
+ * Encodes a binary payload to a JMS message, without going through a String.
+ * The payload is the remaining bytes of the buffer; implementations must not
+ * keep a reference to it after encode returns, since callers reuse it. A
+ * single instance is created at startup and reused for every message, so
+ * implementations must be thread-safe.
+ *
+ * @author mshin
+ *
+ */
+public interface BinaryMessageEncoder {
+    Message encode(ByteBuffer payload, Broker broker) throws JMSException;
+}
@@ -0,0 +1,83 @@
+package com.example.amq.main;
+
+import java.util.ServiceLoader;
+
+/**
+ * Resolves MessageEncoder and MessageDecoder implementations, and their binary
+ * counterparts, once, at startup.
+ * A name is matched first against the providers registered through
+ * META-INF/services (by fully qualified or simple class name), then loaded as a
+ * class name. Misconfiguration fails with an IllegalArgumentException instead
+ * of an error per message.
+ *
+ * @author mshin
+ *
+ */
+public class CodecRegistry {
+
+    private CodecRegistry() {
+    }
+
+    /**
+     * Returns the encoder with the given name, or null if name is null
+     */
+    public static MessageEncoder loadEncoder(String name) {
+        return load(MessageEncoder.class, name);
+    }
+
+    /**
+     * Returns the decoder with the given name, or null if name is null
+     */
+    public static MessageDecoder loadDecoder(String name) {
+        return load(MessageDecoder.class, name);
+    }
+
+    /**
+     * Returns the binary encoder with the given name, or null if name is null
+     */
+    public static BinaryMessageEncoder loadBinaryEncoder(String name) {
+        return load(BinaryMessageEncoder.class, name);
+    }
+
+    /**
+     * Returns the binary decoder with the given name, or null if name is null
+     */
+    public static BinaryMessageDecoder loadBinaryDecoder(String name) {
+        return load(BinaryMessageDecoder.class, name);
+    }
+
+    private static <T> T load(Class<T> type, String name) {
+        if (null == name) {
+            return null;
+        }
+
+        for (T provider : ServiceLoader.load(type)) {
+            Class<?> providerClass = provider.getClass();
+            if (name.equals(providerClass.getName())
+                    || name.equals(providerClass.getSimpleName())) {
+                return provider;
+            }
+        }
+
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Cannot find "
+                    + type.getSimpleName() + " class " + name + ".", e);
+        }
+
+        if (!type.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException(name
+                    + " does not implement interface " + type.getSimpleName()
+                    + ".");
+        }
+
+        try {
+            return type.cast(clazz.newInstance());
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot instantiate " + name
+                    + ". It needs a public no-arg constructor.", e);
+        }
+    }
+}
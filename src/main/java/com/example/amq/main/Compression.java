@@ -0,0 +1,291 @@
+package com.example.amq.main;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+import com.example.amq.client.BytesMessages;
+import com.example.amq.exception.AMQBrokerException;
+
+/**
+ * Deflate compression of BytesMessage bodies. Deflaters, Inflaters and chunk
+ * buffers are pooled, so compressing a message allocates nothing but the
+ * message body itself. Compressed messages carry the COMPRESSION_PROPERTY and
+ * the uncompressed length, so a reader can tell them apart from plain ones.
+ *
+ * @author mshin
+ *
+ */
+class Compression {
+
+    /**
+     * Message property naming the algorithm of a compressed body
+     */
+    static final String COMPRESSION_PROPERTY = "AMQClientCompression";
+
+    /**
+     * Message property holding the length of the body before compression
+     */
+    static final String UNCOMPRESSED_LENGTH_PROPERTY = "AMQClientUncompressedLength";
+
+    static final String DEFLATE = "deflate";
+
+    // Default values
+    static final int DEFAULT_THRESHOLD = 1024;
+    static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime()
+            .availableProcessors();
+    private static final int MAX_UNCOMPRESSED_LENGTH = 256 * 1024 * 1024;
+
+    /**
+     * Deflate expands at most about 1032 to 1, so a larger uncompressed length
+     * is a lie
+     */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private final int threshold;
+    private final int level;
+
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(
+            POOL_SIZE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(
+            POOL_SIZE);
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(
+            POOL_SIZE);
+
+    /**
+     * Bodies shorter than threshold bytes are written uncompressed. level is
+     * a Deflater compression level.
+     */
+    Compression(int threshold, int level) {
+        this.threshold = (threshold < 0 ? 0 : threshold);
+        this.level = level;
+    }
+
+    /**
+     * Writes the remaining bytes of body to the message, compressed if they
+     * reach the threshold. The position of body is left unchanged.
+     */
+    void write(BytesMessage message, ByteBuffer body) throws JMSException {
+        int length = body.remaining();
+        if (length < threshold) {
+            BytesMessages.write(message, body);
+            return;
+        }
+
+        message.setStringProperty(COMPRESSION_PROPERTY, DEFLATE);
+        message.setIntProperty(UNCOMPRESSED_LENGTH_PROPERTY, length);
+
+        Deflater deflater = takeDeflater();
+        byte[] output = takeChunk();
+        byte[] input = null;
+        try {
+            if (body.hasArray()) {
+                deflater.setInput(body.array(),
+                        body.arrayOffset() + body.position(), length);
+            } else {
+                // Deflater only reads arrays, so feed it a chunk at a time
+                input = takeChunk();
+                ByteBuffer source = body.duplicate();
+                while (source.hasRemaining()) {
+                    int n = Math.min(input.length, source.remaining());
+                    source.get(input, 0, n);
+                    deflater.setInput(input, 0, n);
+                    while (!deflater.needsInput()) {
+                        writeDeflated(message, deflater, output);
+                    }
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                writeDeflated(message, deflater, output);
+            }
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+            chunks.offer(output);
+            if (null != input) {
+                chunks.offer(input);
+            }
+        }
+    }
+
+    private static void writeDeflated(BytesMessage message, Deflater deflater,
+            byte[] output) throws JMSException {
+        int compressed = deflater.deflate(output);
+        if (compressed > 0) {
+            message.writeBytes(output, 0, compressed);
+        }
+    }
+
+    /**
+     * Reads the body of the message, inflated if it is compressed, into reuse
+     * or into a new heap buffer if reuse is null or too small. Returns the
+     * buffer holding the body between position 0 and its limit.
+     */
+    ByteBuffer read(BytesMessage message, ByteBuffer reuse)
+            throws JMSException {
+        if (!isCompressed(message)) {
+            return BytesMessages.read(message, reuse);
+        }
+
+        String algorithm = message.getStringProperty(COMPRESSION_PROPERTY);
+        if (!DEFLATE.equals(algorithm)) {
+            throw new AMQBrokerException("Unsupported compression: "
+                    + algorithm);
+        }
+
+        // the length comes from the sender, so it is checked before allocating
+        int length = message.getIntProperty(UNCOMPRESSED_LENGTH_PROPERTY);
+        long maxLength = Math.min(MAX_UNCOMPRESSED_LENGTH,
+                message.getBodyLength() * MAX_DEFLATE_RATIO);
+        if (length < 0 || length > maxLength) {
+            throw new AMQBrokerException("Decompression failed: "
+                    + UNCOMPRESSED_LENGTH_PROPERTY + " " + length
+                    + " is not between 0 and " + maxLength);
+        }
+        ByteBuffer target = reuse;
+        if (null == target || target.capacity() < length) {
+            target = ByteBuffer.allocate(length);
+        }
+        target.clear();
+        target.limit(length);
+
+        message.reset();
+        Inflater inflater = takeInflater();
+        byte[] input = takeChunk();
+        byte[] output = (target.hasArray() ? null : takeChunk());
+        try {
+            int read;
+            while (target.hasRemaining()
+                    && (read = message.readBytes(input)) > 0) {
+                inflater.setInput(input, 0, read);
+                while (target.hasRemaining() && !inflater.needsInput()) {
+                    int n;
+                    if (null == output) {
+                        n = inflater.inflate(target.array(),
+                                target.arrayOffset() + target.position(),
+                                target.remaining());
+                        target.position(target.position() + n);
+                    } else {
+                        n = inflater.inflate(output, 0,
+                                Math.min(output.length, target.remaining()));
+                        target.put(output, 0, n);
+                    }
+                    if (0 == n
+                            && (inflater.finished() || inflater.needsDictionary())) {
+                        break;
+                    }
+                }
+            }
+            if (!target.hasRemaining()) {
+                checkEnd(message, inflater, input, length);
+            }
+        } catch (DataFormatException e) {
+            throw new AMQBrokerException("Decompression failed: "
+                    + e.getMessage());
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+            chunks.offer(input);
+            if (null != output) {
+                chunks.offer(output);
+            }
+        }
+
+        if (target.hasRemaining()) {
+            throw new AMQBrokerException("Decompression failed: expected "
+                    + length + " bytes, got " + target.position());
+        }
+        target.flip();
+        return target;
+    }
+
+    /**
+     * Checks that the compressed body ends where the uncompressed length says,
+     * so a length smaller than the payload does not silently truncate it
+     */
+    private static void checkEnd(BytesMessage message, Inflater inflater,
+            byte[] input, int length) throws JMSException,
+            DataFormatException {
+        byte[] probe = new byte[1];
+        while (!inflater.finished()) {
+            if (inflater.needsInput()) {
+                int read = message.readBytes(input);
+                if (read <= 0) {
+                    break;
+                }
+                inflater.setInput(input, 0, read);
+            }
+            if (inflater.inflate(probe) > 0) {
+                throw new AMQBrokerException("Decompression failed: body is"
+                        + " longer than " + length + " bytes");
+            }
+            if (inflater.needsDictionary()) {
+                break;
+            }
+        }
+        if (!inflater.finished() || inflater.getRemaining() > 0
+                || message.readBytes(input) > 0) {
+            throw new AMQBrokerException("Decompression failed: body does"
+                    + " not end after " + length + " bytes");
+        }
+    }
+
+    /**
+     * Returns true if the body of the message is compressed
+     */
+    static boolean isCompressed(BytesMessage message) throws JMSException {
+        return message.propertyExists(COMPRESSION_PROPERTY);
+    }
+
+    private Deflater takeDeflater() {
+        Deflater deflater = deflaters.poll();
+        return (null == deflater ? new Deflater(level) : deflater);
+    }
+
+    private Inflater takeInflater() {
+        Inflater inflater = inflaters.poll();
+        return (null == inflater ? new Inflater() : inflater);
+    }
+
+    private byte[] takeChunk() {
+        byte[] chunk = chunks.poll();
+        return (null == chunk ? new byte[CHUNK_SIZE] : chunk);
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the int value of a system property, or defaultValue if it is
+     * not set or not a number
+     */
+    static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (null == value) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.amq.main;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+
+import com.example.amq.exception.AMQBrokerException;
+
+/**
+ * Decodes the body of a BytesMessage written by DeflateMessageEncoder, as
+ * UTF-8 text or as a binary payload.
+ * Whether the body is compressed is read from the message, so uncompressed
+ * BytesMessages and plain TextMessages decode as well.
+ *
+ * @author mshin
+ *
+ */
+public class DeflateMessageDecoder implements MessageDecoder,
+        BinaryMessageDecoder {
+
+    private final Compression compression = new Compression(
+            Compression.DEFAULT_THRESHOLD, Compression.DEFAULT_LEVEL);
+
+    @Override
+    public String decode(Message message) throws JMSException {
+        if (message instanceof BytesMessage) {
+            ByteBuffer body = compression.read((BytesMessage) message, null);
+            return new String(body.array(), body.arrayOffset(),
+                    body.limit(), StandardCharsets.UTF_8);
+        }
+        if (message instanceof TextMessage) {
+            return ((TextMessage) message).getText();
+        }
+        throw new AMQBrokerException("Cannot decode "
+                + message.getClass().getName());
+    }
+
+    @Override
+    public ByteBuffer decode(Message message, ByteBuffer reuse)
+            throws JMSException {
+        if (message instanceof BytesMessage) {
+            return compression.read((BytesMessage) message, reuse);
+        }
+        if (message instanceof TextMessage) {
+            return ByteBuffer.wrap(((TextMessage) message).getText().getBytes(
+                    StandardCharsets.UTF_8));
+        }
+        throw new AMQBrokerException("Cannot decode "
+                + message.getClass().getName());
+    }
+}
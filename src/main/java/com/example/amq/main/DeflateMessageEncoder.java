@@ -0,0 +1,56 @@
+package com.example.amq.main;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import com.example.amq.client.Broker;
+
+/**
+ * Encodes a String as the UTF-8 body of a BytesMessage, or a binary payload as
+ * the body as is, deflated once it reaches the threshold. The threshold and
+ * level come from the amq.compression.threshold and amq.compression.level
+ * system properties. Pair with DeflateMessageDecoder.
+ *
+ * @author mshin
+ *
+ */
+public class DeflateMessageEncoder implements MessageEncoder,
+        BinaryMessageEncoder {
+
+    public static final String THRESHOLD_PROPERTY = "amq.compression.threshold";
+    public static final String LEVEL_PROPERTY = "amq.compression.level";
+
+    private final Compression compression;
+
+    public DeflateMessageEncoder() {
+        this(Compression.intProperty(THRESHOLD_PROPERTY,
+                Compression.DEFAULT_THRESHOLD), Compression.intProperty(
+                LEVEL_PROPERTY, Compression.DEFAULT_LEVEL));
+    }
+
+    /**
+     * Bodies shorter than threshold bytes are sent uncompressed. level is a
+     * java.util.zip.Deflater compression level.
+     */
+    public DeflateMessageEncoder(int threshold, int level) {
+        this.compression = new Compression(threshold, level);
+    }
+
+    @Override
+    public Message encode(String message, Broker broker) throws JMSException {
+        return encode(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)),
+                broker);
+    }
+
+    @Override
+    public Message encode(ByteBuffer payload, Broker broker)
+            throws JMSException {
+        BytesMessage bytesMessage = broker.createBytesMessage();
+        compression.write(bytesMessage, payload);
+        return bytesMessage;
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.amq.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+
+import com.example.amq.client.Broker;
+import com.example.amq.client.BrokerFactory;
+
+/**
+ * Sends files as BytesMessages. A directory is sent one message per regular
+ * file; a single file is split into records at a delimiter byte and sent one
+ * message per record. Files are memory mapped and records are handed to the
+ * sender threads as slices of the mapping, so the input is copied once, into
+ * the message, and never decoded into Strings.
+ *
+ * @author mshin
+ *
+ */
+class FileProducer {
+
+    // Default values
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Marks the end of the input for the sender threads
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final String uri;
+    private final String username;
+    private final String password;
+    private final String destination;
+    private final Path input;
+    private final byte delimiter;
+    private final int threads;
+    private final int windowSize;
+
+    private final BlockingQueue<ByteBuffer> records;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger failedSenders = new AtomicInteger();
+
+    FileProducer(String uri, String username, String password,
+            String destination, Path input, byte delimiter, int threads) {
+        this.uri = uri;
+        this.username = username;
+        this.password = password;
+        this.destination = destination;
+        this.input = input;
+        this.delimiter = delimiter;
+        this.threads = (threads < 1 ? 1 : threads);
+        this.windowSize = DEFAULT_WINDOW_SIZE;
+        this.records = new ArrayBlockingQueue<ByteBuffer>(
+                DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Sends the whole input, or until shutdown is set
+     */
+    void run(final AtomicBoolean shutdown) throws JMSException, IOException {
+        // one session and cached producer per sender thread
+        final Broker broker = BrokerFactory.newThreadLocalSessionBrokerInstance(
+                threads, username, password, uri);
+        try {
+            System.out.println("Sending " + input + " to " + destination
+                    + " with " + threads + " threads...");
+
+            long start = System.nanoTime();
+            final CountDownLatch done = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++) {
+                Thread thread = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            produce(broker);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+
+                }, "FileProducer-" + i);
+                thread.start();
+            }
+
+            try {
+                if (Files.isDirectory(input)) {
+                    readDirectory(shutdown);
+                } else {
+                    readRecords(shutdown);
+                }
+            } finally {
+                for (int i = 0; i < threads; i++) {
+                    put(END);
+                }
+            }
+
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                System.err.println("Interrupted. " + e.getMessage());
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf(
+                    "Files complete. sent:%d bytes:%d errors:%d elapsed:%.3fs rate:%.1f msg/s %.1f MB/s%n",
+                    sent.get(), sentBytes.get(), errors.get(), seconds,
+                    sent.get() / seconds, sentBytes.get() / seconds / 1e6);
+        } finally {
+            broker.close();
+        }
+    }
+
+    /**
+     * Queues every regular file of the directory as one record
+     */
+    private void readDirectory(AtomicBoolean shutdown) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(input)) {
+            for (Path file : files) {
+                if (shutdown.get()) {
+                    return;
+                }
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(file,
+                        StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    if (size > Integer.MAX_VALUE) {
+                        throw new IOException("File " + file
+                                + " is too large for one message");
+                    }
+                    // the mapping stays valid after the channel is closed
+                    put(channel.map(MapMode.READ_ONLY, 0, size));
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues the records of the input file. The file is mapped a window at a
+     * time; a record crossing the end of a window starts the next one.
+     */
+    private void readRecords(AtomicBoolean shutdown) throws IOException {
+        try (FileChannel channel = FileChannel.open(input,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size && !shutdown.get()) {
+                long length = Math.min(windowSize, size - position);
+                boolean lastWindow = (position + length == size);
+                MappedByteBuffer window = channel.map(MapMode.READ_ONLY,
+                        position, length);
+
+                int recordStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (window.get(i) == delimiter) {
+                        putRecord(window, recordStart, i);
+                        recordStart = i + 1;
+                    }
+                }
+
+                if (lastWindow) {
+                    putRecord(window, recordStart, (int) length);
+                    position = size;
+                } else if (0 == recordStart) {
+                    throw new IOException("Record at " + position
+                            + " is larger than " + windowSize + " bytes");
+                } else {
+                    position += recordStart;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues window[start, end) without copying, skipping empty records. The
+     * '\r' of a CRLF line ending is dropped when records are lines.
+     */
+    private void putRecord(MappedByteBuffer window, int start, int end) {
+        if ('\n' == delimiter && end > start && '\r' == window.get(end - 1)) {
+            end--;
+        }
+        if (end <= start) {
+            return;
+        }
+        ByteBuffer record = window.duplicate();
+        record.limit(end);
+        record.position(start);
+        put(record.slice());
+    }
+
+    private void put(ByteBuffer record) {
+        try {
+            records.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Send loop of one sender thread
+     */
+    private void produce(Broker broker) {
+        MessageProducer producer;
+        try {
+            producer = broker.getProducer(broker.getDestination(destination));
+        } catch (JMSException e) {
+            System.err.println("Producer creation failed: " + e.getMessage());
+            errors.incrementAndGet();
+            // the others keep sending; the last one to fail unblocks the reader
+            if (threads == failedSenders.incrementAndGet()) {
+                drain();
+            }
+            return;
+        }
+
+        while (true) {
+            ByteBuffer record;
+            try {
+                record = records.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (END == record) {
+                return;
+            }
+
+            int length = record.remaining();
+            try {
+                Message message = Main.encodeMessage(record, broker);
+                if (null == message) {
+                    // the encoder failed and reported it
+                    errors.incrementAndGet();
+                    continue;
+                }
+                producer.send(message);
+                sent.incrementAndGet();
+                sentBytes.addAndGet(length);
+            } catch (JMSException | RuntimeException e) {
+                // one bad record must not stop the sender
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Keeps the reader from blocking once every sender thread has given up,
+     * taking the remaining records and the END of every thread
+     */
+    private void drain() {
+        ByteBuffer record;
+        int ends = 0;
+        try {
+            while (ends < threads) {
+                record = records.poll(1, TimeUnit.SECONDS);
+                if (END == record) {
+                    ends++;
+                } else if (null != record) {
+                    errors.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
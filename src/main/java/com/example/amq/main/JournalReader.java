@@ -0,0 +1,90 @@
+package com.example.amq.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the records of a journal written by JournalWriter, a buffer at a
+ * time, so a journal can be larger than the heap. A record cut short at the
+ * end of the file, as left by a consumer that was killed, ends the journal.
+ *
+ * @author mshin
+ *
+ */
+class JournalReader implements AutoCloseable {
+
+    // Default values
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    private boolean endOfFile = false;
+
+    JournalReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.flip();
+        if (!fill(8) || JournalWriter.MAGIC != buffer.getInt()) {
+            channel.close();
+            throw new IOException(file + " is not a journal");
+        }
+        int version = buffer.getInt();
+        if (JournalWriter.VERSION != version) {
+            channel.close();
+            throw new IOException(file + " has unsupported journal version "
+                    + version);
+        }
+    }
+
+    /**
+     * Returns the next record, or null at the end of the journal
+     */
+    JournalRecord next() throws IOException {
+        if (!fill(4)) {
+            return null;
+        }
+        int length = buffer.getInt();
+        if (length < 0) {
+            throw new IOException("Journal record is corrupt");
+        }
+        if (!fill(length)) {
+            return null;
+        }
+
+        ByteBuffer record = buffer.slice();
+        record.limit(length);
+        buffer.position(buffer.position() + length);
+        return JournalRecord.decode(record);
+    }
+
+    /**
+     * Makes at least n bytes available in the buffer, reading and growing it
+     * as needed. Returns false if the file ends first.
+     */
+    private boolean fill(int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return true;
+        }
+        if (n > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(n);
+            larger.put(buffer);
+            larger.flip();
+            buffer = larger;
+        }
+        buffer.compact();
+        while (buffer.position() < n && !endOfFile) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
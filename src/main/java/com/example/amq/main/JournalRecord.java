@@ -0,0 +1,304 @@
+package com.example.amq.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+
+import com.example.amq.client.Broker;
+import com.example.amq.client.BytesMessages;
+
+/**
+ * One consumed message as stored in a journal: the time it was received, the
+ * JMS headers a producer can set, the properties and the body of Text and
+ * BytesMessages. Other message types are journaled without a body and
+ * replayed as empty BytesMessages.
+ *
+ * A record is its length as an int followed by:
+ * received, timestamp and expiration as longs; priority, delivery mode and
+ * body type as bytes; type and correlation id as strings; the number of
+ * properties as a short, then name, type tag and value of each; the body as
+ * an int length and its bytes. Strings are an int length, -1 for null, and
+ * UTF-8 bytes.
+ *
+ * @author mshin
+ *
+ */
+class JournalRecord {
+
+    static final byte BODY_NONE = 0;
+    static final byte BODY_TEXT = 1;
+    static final byte BODY_BYTES = 2;
+
+    // property type tags
+    private static final byte BOOLEAN = 'Z';
+    private static final byte BYTE = 'B';
+    private static final byte SHORT = 'S';
+    private static final byte INT = 'I';
+    private static final byte LONG = 'J';
+    private static final byte FLOAT = 'F';
+    private static final byte DOUBLE = 'D';
+    private static final byte STRING = 'T';
+
+    // set by the broker on delivery, rejected or meaningless on replay;
+    // other JMSX properties such as JMSXGroupID and JMSXGroupSeq are kept
+    private static final Set<String> DELIVERY_PROPERTIES = new HashSet<String>(
+            Arrays.asList("JMSXDeliveryCount", "JMSXUserID"));
+
+    long received;
+    long timestamp;
+    long expiration;
+    int priority;
+    int deliveryMode;
+    byte bodyType;
+    String type;
+    String correlationId;
+    final Map<String, Object> properties = new LinkedHashMap<String, Object>();
+    byte[] body;
+
+    /**
+     * Encodes the message into buffer, replacing its contents
+     */
+    static void encode(Message message, long received, RecordBuffer buffer)
+            throws JMSException {
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeInt(0); // length, patched below
+            out.writeLong(received);
+            out.writeLong(message.getJMSTimestamp());
+            out.writeLong(message.getJMSExpiration());
+            out.writeByte(message.getJMSPriority());
+            out.writeByte(message.getJMSDeliveryMode());
+
+            ByteBuffer body = null;
+            if (message instanceof TextMessage) {
+                out.writeByte(BODY_TEXT);
+                String text = ((TextMessage) message).getText();
+                body = (null == text ? ByteBuffer.allocate(0) : ByteBuffer
+                        .wrap(text.getBytes(StandardCharsets.UTF_8)));
+            } else if (message instanceof BytesMessage) {
+                out.writeByte(BODY_BYTES);
+                body = BytesMessages.read((BytesMessage) message,
+                        buffer.bodyBuffer);
+                buffer.bodyBuffer = body;
+                ((BytesMessage) message).reset();
+            } else {
+                out.writeByte(BODY_NONE);
+            }
+
+            writeString(out, message.getJMSType());
+            writeString(out, message.getJMSCorrelationID());
+
+            Map<String, Object> properties = new LinkedHashMap<String, Object>();
+            Enumeration<?> names = message.getPropertyNames();
+            while (names.hasMoreElements()) {
+                String name = (String) names.nextElement();
+                if (!DELIVERY_PROPERTIES.contains(name)) {
+                    properties.put(name, message.getObjectProperty(name));
+                }
+            }
+            out.writeShort(properties.size());
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                writeString(out, property.getKey());
+                writeProperty(out, property.getValue());
+            }
+
+            if (null == body) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(body.remaining());
+                out.write(body.array(), body.arrayOffset() + body.position(),
+                        body.remaining());
+            }
+            out.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        buffer.patchLength();
+    }
+
+    /**
+     * Decodes the record following the length in buffer
+     */
+    static JournalRecord decode(ByteBuffer buffer) throws IOException {
+        try {
+            JournalRecord record = new JournalRecord();
+            record.received = buffer.getLong();
+            record.timestamp = buffer.getLong();
+            record.expiration = buffer.getLong();
+            record.priority = buffer.get();
+            record.deliveryMode = buffer.get();
+            record.bodyType = buffer.get();
+            record.type = readString(buffer);
+            record.correlationId = readString(buffer);
+
+            int properties = buffer.getShort() & 0xffff;
+            for (int i = 0; i < properties; i++) {
+                String name = readString(buffer);
+                record.properties.put(name, readProperty(buffer));
+            }
+
+            record.body = new byte[buffer.getInt()];
+            buffer.get(record.body);
+            return record;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("Journal record is corrupt");
+        }
+    }
+
+    /**
+     * Creates a message with the body, type, correlation id and properties of
+     * this record
+     */
+    Message toMessage(Broker broker) throws JMSException {
+        Message message;
+        if (BODY_TEXT == bodyType) {
+            TextMessage textMessage = broker.createTextMessage();
+            textMessage.setText(new String(body, StandardCharsets.UTF_8));
+            message = textMessage;
+        } else {
+            BytesMessage bytesMessage = broker.createBytesMessage();
+            bytesMessage.writeBytes(body);
+            message = bytesMessage;
+        }
+        if (null != type) {
+            message.setJMSType(type);
+        }
+        if (null != correlationId) {
+            message.setJMSCorrelationID(correlationId);
+        }
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            message.setObjectProperty(property.getKey(), property.getValue());
+        }
+        return message;
+    }
+
+    /**
+     * Returns the time to live the message had when it was sent, 0 if it
+     * never expires
+     */
+    long getTimeToLive() {
+        if (0 == expiration) {
+            return 0;
+        }
+        return Math.max(1, expiration - timestamp);
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        if (null == value) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeProperty(DataOutputStream out, Object value)
+            throws IOException {
+        if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else {
+            out.writeByte(STRING);
+            writeString(out, (null == value ? null : value.toString()));
+        }
+    }
+
+    private static Object readProperty(ByteBuffer buffer) throws IOException {
+        byte tag = buffer.get();
+        switch (tag) {
+        case BOOLEAN:
+            return 0 != buffer.get();
+        case BYTE:
+            return buffer.get();
+        case SHORT:
+            return buffer.getShort();
+        case INT:
+            return buffer.getInt();
+        case LONG:
+            return buffer.getLong();
+        case FLOAT:
+            return buffer.getFloat();
+        case DOUBLE:
+            return buffer.getDouble();
+        case STRING:
+            return readString(buffer);
+        default:
+            throw new IOException("Journal record has unknown property type "
+                    + tag);
+        }
+    }
+
+    /**
+     * Reusable encoding buffer, one per handler thread
+     */
+    static class RecordBuffer extends ByteArrayOutputStream {
+
+        // reused to read BytesMessage bodies
+        private ByteBuffer bodyBuffer;
+
+        RecordBuffer() {
+            super(4096);
+        }
+
+        /**
+         * Returns the encoded record, length included
+         */
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        private void patchLength() {
+            int length = count - 4;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.amq.main;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+
+import com.example.amq.client.Broker;
+
+/**
+ * Sends the messages of a journal to a destination in their original order.
+ * With a speed of 1 they are sent with the gaps they were received with, with
+ * a speed of 2 twice as fast, and so on; with a speed of 0 or less as fast as
+ * possible. Messages keep their priority, delivery mode and time to live. If
+ * stampSendTime is set they are stamped for LatencyRecorder like other sends.
+ *
+ * @author mshin
+ *
+ */
+class JournalReplayer {
+
+    private final Broker broker;
+    private final String destination;
+    private final Path journal;
+    private final double speed;
+    private final boolean stampSendTime;
+
+    private long sent = 0;
+    private long errors = 0;
+
+    JournalReplayer(Broker broker, String destination, Path journal,
+            double speed, boolean stampSendTime) {
+        this.broker = broker;
+        this.destination = destination;
+        this.journal = journal;
+        this.speed = speed;
+        this.stampSendTime = stampSendTime;
+    }
+
+    /**
+     * Replays the whole journal, or until shutdown is set
+     */
+    void run(AtomicBoolean shutdown) throws JMSException, IOException {
+        MessageProducer producer = broker.getProducer(broker
+                .getDestination(destination));
+
+        System.out.println("Replaying " + journal + " to " + destination
+                + (speed > 0 ? " at " + speed + "x speed..." : " at full speed..."));
+
+        long start = System.nanoTime();
+        long firstReceived = 0;
+        long lastReport = start;
+        long lastSent = 0;
+        try (JournalReader reader = new JournalReader(journal)) {
+            JournalRecord record;
+            while (!shutdown.get() && null != (record = reader.next())) {
+                if (0 == sent + errors) {
+                    firstReceived = record.received;
+                }
+                if (speed > 0) {
+                    // intended send time, so slow sends do not add up
+                    long due = start
+                            + (long) ((record.received - firstReceived) / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0
+                            && !shutdown.get()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+
+                try {
+                    Message message = record.toMessage(broker);
+                    if (stampSendTime) {
+                        LatencyRecorder.stamp(message);
+                    }
+                    producer.send(message, record.deliveryMode,
+                            record.priority, record.getTimeToLive());
+                    sent++;
+                } catch (JMSException e) {
+                    if (0 == errors++) {
+                        System.err.println("Replay send failed: "
+                                + e.getMessage());
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - lastReport >= 1000000000L) {
+                    System.out.printf("sent:%d errors:%d rate:%.1f msg/s%n",
+                            sent, errors, (sent - lastSent) * 1e9
+                                    / (now - lastReport));
+                    lastReport = now;
+                    lastSent = sent;
+                }
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(
+                "Replay complete. sent:%d errors:%d elapsed:%.3fs rate:%.1f msg/s%n",
+                sent, errors, seconds, sent / seconds);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.amq.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import com.example.amq.main.JournalRecord.RecordBuffer;
+
+/**
+ * Appends consumed messages to a journal file. Handler threads encode their
+ * records in parallel; only the copy into the shared write buffer is
+ * serialized. The buffer is written sequentially to the end of the file
+ * whenever it fills up and on close.
+ *
+ * @author mshin
+ *
+ */
+class JournalWriter {
+
+    /**
+     * First bytes of every journal
+     */
+    static final int MAGIC = 0x414d514a; // "AMQJ"
+    static final int VERSION = 1;
+
+    // Default values
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<RecordBuffer> RECORD_BUFFER = new ThreadLocal<RecordBuffer>() {
+
+        @Override
+        protected RecordBuffer initialValue() {
+            return new RecordBuffer();
+        }
+    };
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer
+            .allocateDirect(DEFAULT_BUFFER_SIZE);
+
+    private final AtomicLong written = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the journal, replacing the file if it exists
+     */
+    JournalWriter(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    /**
+     * Appends the message, received at the given wall clock time in
+     * nanoseconds
+     */
+    void append(Message message, long received) throws JMSException,
+            IOException {
+        RecordBuffer recordBuffer = RECORD_BUFFER.get();
+        JournalRecord.encode(message, received, recordBuffer);
+        ByteBuffer record = recordBuffer.toByteBuffer();
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (record.remaining() > buffer.remaining()) {
+                flush();
+            }
+            if (record.remaining() > buffer.remaining()) {
+                // larger than the whole buffer
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } else {
+                buffer.put(record);
+            }
+        }
+        written.incrementAndGet();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the number of messages journaled so far
+     */
+    long getWrittenCount() {
+        return written.get();
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Writes out the buffer and closes the file
+     */
+    synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.amq.main;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, log-linear histogram of latencies in nanoseconds. Every power of
+ * two range is split into SUB_BUCKETS / 2 linear buckets, so a recorded value
+ * is reported within 1% of its real value. Recording is lock free and does
+ * not allocate; percentiles are read by a single reporting thread.
+ *
+ * @author mshin
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    // enough buckets for Long.MAX_VALUE
+    private static final int BUCKETS = SUB_BUCKETS
+            + (62 - (SUB_BUCKET_BITS - 1)) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency. Negative values, e.g. from clock skew between
+     * hosts, are recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = (nanos < 0 ? 0 : nanos);
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Moves the counts of this histogram into target and resets this one.
+     * Values recorded concurrently end up in either histogram, never in none.
+     */
+    public void drainTo(LatencyHistogram target) {
+        long drained = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.getAndSet(i, 0);
+            if (count > 0) {
+                target.counts.addAndGet(i, count);
+                drained += count;
+            }
+        }
+        target.totalCount.addAndGet(drained);
+        totalCount.addAndGet(-drained);
+        long drainedMax = max.getAndSet(0);
+        long current;
+        while (drainedMax > (current = target.max.get())) {
+            if (target.max.compareAndSet(current, drainedMax)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of other to this histogram, leaving other unchanged
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        long otherMax = other.max.get();
+        long current;
+        while (otherMax > (current = max.get())) {
+            if (max.compareAndSet(current, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        max.set(0);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the latency at or below which the given percentage (0-100) of
+     * the recorded values fall, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (0 == total) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(100.0, percentile) / 100.0
+                * total);
+        if (rank < 1) {
+            rank = 1;
+        }
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns a one line summary with the percentiles in microseconds
+     */
+    public String summary() {
+        return String.format(
+                "count:%d p50:%.1fus p99:%.1fus p99.9:%.1fus max:%.1fus",
+                getCount(), getValueAtPercentile(50.0) / 1000.0,
+                getValueAtPercentile(99.0) / 1000.0,
+                getValueAtPercentile(99.9) / 1000.0, getMax() / 1000.0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value))
+                - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS
+                + (subBucket - HALF_SUB_BUCKETS);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int offset = index - SUB_BUCKETS;
+        int shift = offset / HALF_SUB_BUCKETS + 1;
+        long subBucket = offset % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.amq.main;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Records end-to-end latencies of messages stamped with their send time.
+ * Two latencies are kept per message: send to receive, and receive to
+ * handled. Both are reported every interval and in total on close.
+ *
+ * The stamp is wall clock time in nanoseconds, derived from System.nanoTime
+ * anchored to System.currentTimeMillis once per JVM. Producer and consumer on
+ * different hosts are only as comparable as their clocks are synchronized.
+ *
+ * @author mshin
+ *
+ */
+class LatencyRecorder {
+
+    /**
+     * Message property holding the send time in nanoseconds since the epoch
+     */
+    static final String SEND_TIME_PROPERTY = "AMQClientSendNanos";
+
+    private static final long EPOCH_OFFSET_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(System.currentTimeMillis()) - System.nanoTime();
+
+    // written by consumer threads
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+    private final LatencyHistogram handling = new LatencyHistogram();
+
+    // only touched by the reporting thread, reused every interval
+    private final LatencyHistogram endToEndInterval = new LatencyHistogram();
+    private final LatencyHistogram handlingInterval = new LatencyHistogram();
+    private final LatencyHistogram endToEndTotal = new LatencyHistogram();
+    private final LatencyHistogram handlingTotal = new LatencyHistogram();
+
+    private final ScheduledExecutorService reporter;
+
+    /**
+     * Starts a recorder that prints the interval percentiles every
+     * reportIntervalMillis, or only the totals on close if that is <= 0.
+     */
+    LatencyRecorder(long reportIntervalMillis) {
+        if (reportIntervalMillis > 0) {
+            reporter = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "LatencyReporter");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            reporter.scheduleAtFixedRate(new Runnable() {
+
+                @Override
+                public void run() {
+                    report();
+                }
+            }, reportIntervalMillis, reportIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            reporter = null;
+        }
+    }
+
+    /**
+     * Returns the current wall clock time in nanoseconds
+     */
+    static long now() {
+        return System.nanoTime() + EPOCH_OFFSET_NANOS;
+    }
+
+    /**
+     * Stamps the message with the current time. Call right before sending.
+     */
+    static void stamp(Message message) throws JMSException {
+        message.setLongProperty(SEND_TIME_PROPERTY, now());
+    }
+
+    /**
+     * Records the latencies of a message received at receivedNanos and
+     * handled at handledNanos, both taken from now(). Messages without a send
+     * time stamp only count towards the handling latency.
+     */
+    void record(Message message, long receivedNanos, long handledNanos) {
+        try {
+            if (message.propertyExists(SEND_TIME_PROPERTY)) {
+                endToEnd.record(receivedNanos
+                        - message.getLongProperty(SEND_TIME_PROPERTY));
+            }
+        } catch (JMSException e) {
+            System.err.println("Error while attempting to read property "
+                    + SEND_TIME_PROPERTY + ".");
+            System.err.println(e.getMessage());
+        }
+        handling.record(handledNanos - receivedNanos);
+    }
+
+    private synchronized void report() {
+        endToEndInterval.reset();
+        handlingInterval.reset();
+        endToEnd.drainTo(endToEndInterval);
+        handling.drainTo(handlingInterval);
+        endToEndTotal.add(endToEndInterval);
+        handlingTotal.add(handlingInterval);
+
+        System.out.println("latency send-to-receive    "
+                + endToEndInterval.summary());
+        System.out.println("latency receive-to-handled "
+                + handlingInterval.summary());
+    }
+
+    /**
+     * Stops interval reporting and prints the totals
+     */
+    synchronized void close() {
+        if (null != reporter) {
+            reporter.shutdownNow();
+        }
+        endToEnd.drainTo(endToEndTotal);
+        handling.drainTo(handlingTotal);
+
+        System.out.println("Total latency send-to-receive    "
+                + endToEndTotal.summary());
+        System.out.println("Total latency receive-to-handled "
+                + handlingTotal.summary());
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.amq.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+
+import com.example.amq.client.Broker;
+import com.example.amq.client.BrokerFactory;
+
+/**
+ * Multi-threaded producer for capacity testing. Producer threads are spread
+ * over a number of connections and either send as fast as possible
+ * (closed-loop, rate <= 0) or at a fixed total rate (open-loop). Open-loop
+ * threads send on a schedule of intended send times, so a slow send is caught
+ * up on instead of silently lowering the rate.
+ *
+ * @author mshin
+ *
+ */
+class LoadGenerator {
+
+    private static final long REPORT_INTERVAL_MILLIS = 1000L;
+
+    private final String uri;
+    private final String username;
+    private final String password;
+    private final String destination;
+    private final String payload;
+    private final double rate;
+    private final long count;
+    private final long durationMillis;
+    private final int threads;
+    private final int connections;
+
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * count <= 0 and durationMillis <= 0 mean unlimited; the generator then
+     * runs until shutdown. The message is used as the payload if given,
+     * otherwise a payload of payloadSize characters is generated.
+     */
+    LoadGenerator(String uri, String username, String password,
+            String destination, String message, int payloadSize, double rate,
+            long count, long durationMillis, int threads, int connections) {
+        this.uri = uri;
+        this.username = username;
+        this.password = password;
+        this.destination = destination;
+        this.payload = (null != message ? message : generatePayload(payloadSize));
+        this.rate = rate;
+        this.count = count;
+        this.durationMillis = durationMillis;
+        this.threads = (threads < 1 ? 1 : threads);
+        this.connections = Math.max(1, Math.min(connections, this.threads));
+    }
+
+    private static String generatePayload(int size) {
+        char[] chars = new char[(size < 0 ? 0 : size)];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    /**
+     * Sends until the count or duration is reached or shutdown is set
+     */
+    void run(final AtomicBoolean shutdown) throws JMSException {
+        List<Broker> brokers = new ArrayList<Broker>(connections);
+        // every thread holds a producer, so none is evicted by another
+        int threadsPerConnection = (threads + connections - 1) / connections;
+        try {
+            for (int i = 0; i < connections; i++) {
+                // every thread gets its own session on its connection
+                brokers.add(BrokerFactory.newThreadLocalSessionBrokerInstance(
+                        threadsPerConnection, username, password, uri));
+            }
+
+            System.out.println("Generating load on " + destination + " with "
+                    + threads + " threads over " + connections
+                    + " connections at "
+                    + (rate > 0 ? rate + " msg/s" : "max rate") + "...");
+
+            final long start = System.nanoTime();
+            final long deadline = (durationMillis > 0 ? start
+                    + TimeUnit.MILLISECONDS.toNanos(durationMillis)
+                    : Long.MAX_VALUE);
+            // each thread sends its share of the total rate
+            final long intervalNanos = (rate > 0 ? (long) (TimeUnit.SECONDS
+                    .toNanos(1) * threads / rate) : 0L);
+            final CountDownLatch done = new CountDownLatch(threads);
+
+            for (int i = 0; i < threads; i++) {
+                final Broker broker = brokers.get(i % connections);
+                // stagger open-loop threads so they do not send in bursts
+                final long offsetNanos = (intervalNanos * i) / threads;
+                Thread thread = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            produce(broker, start + offsetNanos,
+                                    intervalNanos, deadline, shutdown);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+
+                }, "LoadGenerator-" + i);
+                thread.start();
+            }
+
+            long lastSent = 0;
+            long lastReport = System.nanoTime();
+            while (true) {
+                boolean finished;
+                try {
+                    finished = done.await(REPORT_INTERVAL_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    System.err.println("Interrupted. " + e.getMessage());
+                    shutdown.set(true);
+                    finished = false;
+                }
+                long now = System.nanoTime();
+                long total = sent.get();
+                System.out.printf("sent:%d rate:%.1f msg/s errors:%d%n", total,
+                        (total - lastSent) * 1e9 / Math.max(1, now - lastReport),
+                        errors.get());
+                lastSent = total;
+                lastReport = now;
+                if (finished) {
+                    break;
+                }
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf(
+                    "Load complete. sent:%d errors:%d elapsed:%.3fs rate:%.1f msg/s%n",
+                    sent.get(), errors.get(), seconds, sent.get() / seconds);
+        } finally {
+            for (Broker broker : brokers) {
+                broker.close();
+            }
+        }
+    }
+
+    /**
+     * Send loop of one producer thread
+     */
+    private void produce(Broker broker, long firstSendNanos,
+            long intervalNanos, long deadline, AtomicBoolean shutdown) {
+        MessageProducer producer;
+        try {
+            producer = broker.getProducer(broker.getDestination(destination));
+        } catch (JMSException e) {
+            System.err.println("Producer creation failed: " + e.getMessage());
+            return;
+        }
+
+        long nextSend = firstSendNanos;
+        while (!shutdown.get()) {
+            if (count > 0 && claimed.incrementAndGet() > count) {
+                return;
+            }
+
+            if (intervalNanos > 0) {
+                long wait;
+                while ((wait = nextSend - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                nextSend += intervalNanos;
+            }
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+
+            try {
+                Main.sendMessage(payload, broker, producer);
+                sent.incrementAndGet();
+            } catch (JMSException e) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+}
@@ -1,18 +1,33 @@
 package com.example.amq.main;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
 import javax.jms.TextMessage;
 
+import com.example.amq.client.BlobConsumer;
 import com.example.amq.client.Broker;
 import com.example.amq.client.BrokerFactory;
+import com.example.amq.client.DirectoryBlobSink;
+import com.example.amq.client.FanOutResult;
 import com.example.amq.client.MessageHandler;
+import com.example.amq.client.strategy.AcknowledgeMode;
+import com.example.amq.client.strategy.SimpleBrokerClientStrategy;
 
 /**
  * Command line runnable AMQ client.
@@ -23,8 +38,6 @@ public class Main {
     // TODO implement parameter for interval sleep between
     // caughtMessage/sentMessage
     // TODO implement postSend hook.
-    // TODO implement sending more than just text message (probably from file?)
-    // This should probably be different from the encoder.
 
     // TODO implement parameters for messages sent, like ttl (timeToLive).
 
@@ -32,6 +45,41 @@ public class Main {
     private static AtomicInteger count = new AtomicInteger(0);
     private static volatile String decoderClassname = null;
     private static volatile String encoderClassname = null;
+    // resolved once from the class names above
+    private static volatile MessageDecoder decoder = null;
+    private static volatile MessageEncoder encoder = null;
+    // set by --binary-decoder/--binary-encoder; take precedence over the above
+    private static volatile BinaryMessageDecoder binaryDecoder = null;
+    private static volatile BinaryMessageEncoder binaryEncoder = null;
+    // reused by binaryDecoder, one per handler thread
+    private static final ThreadLocal<ByteBuffer> decodeBuffer = new ThreadLocal<ByteBuffer>();
+    // set by --latency; producers stamp send times, consumers record them
+    private static volatile boolean stampSendTime = false;
+    private static volatile LatencyRecorder latencyRecorder = null;
+    // consumer mode prints messages through this, unless --flush=-1
+    private static volatile AsyncOutput output = null;
+    // set by --journal; consumer mode appends every message to it
+    private static volatile JournalWriter journal = null;
+
+    // names accepted as --name=value
+    private static final List<String> LONG_OPTIONS = Arrays.asList("rate",
+            "count", "duration", "threads", "connections", "size", "latency",
+            "prefetch", "destination-prefetch", "ack", "ack-timeout", "input",
+            "delimiter", "output", "buffer-size", "binary-encoder",
+            "binary-decoder", "log", "flush", "journal",
+            "speed", "fan-out", "client-id",
+            "durable", "group", "consumers");
+
+    // Default values
+    private static final int DEFAULT_LOAD_THREADS = 1;
+    private static final int DEFAULT_LOAD_CONNECTIONS = 1;
+    private static final int DEFAULT_PAYLOAD_SIZE = 1024;
+    private static final int DEFAULT_DOWNLOAD_THREADS = 4;
+    private static final int DEFAULT_DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final long DEFAULT_FAN_OUT_TIMEOUT = 30000;
+
+    private static final String QUEUE_PREFIX = "queue://";
+    private static final String TOPIC_PREFIX = "topic://";
 
     public static void main(String[] args) throws JMSException {
 
@@ -41,11 +89,20 @@ public class Main {
         }
 
         boolean isConsumer = false;
+        boolean isLoad = false;
+        boolean isFile = false;
+        boolean isReplay = false;
         String corp = String.valueOf(args[0]).toLowerCase();
         if ("p".equals(corp) || "producer".equals(corp)) {
             isConsumer = false;
         } else if ("c".equals(corp) || "consumer".equals(corp)) {
             isConsumer = true;
+        } else if ("l".equals(corp) || "load".equals(corp)) {
+            isLoad = true;
+        } else if ("f".equals(corp) || "file".equals(corp)) {
+            isFile = true;
+        } else if ("r".equals(corp) || "replay".equals(corp)) {
+            isReplay = true;
         } else {
             exit(corp);
         }
@@ -58,10 +115,13 @@ public class Main {
 
         String message = null;
 
+        // --name=value options
+        Map<String, String> options = new HashMap<String, String>();
+
         for (int i = 3; i < args.length; i++) {
             String param = String.valueOf(args[i]);
 
-            if (!param.startsWith("-")) {
+            if (!param.startsWith("-") || param.length() < 2) {
                 exit(param);
             }
 
@@ -97,6 +157,15 @@ public class Main {
                 else
                     exit(param + ". Duplicate arg.");
                 break;
+            case "-":
+                int eq = param.indexOf('=');
+                String name = (eq > 2 ? param.substring(2, eq).toLowerCase()
+                        : null);
+                if (!LONG_OPTIONS.contains(name))
+                    exit(param);
+                else if (null != options.put(name, param.substring(eq + 1)))
+                    exit(param + ". Duplicate arg.");
+                break;
             default:
                 exit(param);
                 break;
@@ -112,6 +181,89 @@ public class Main {
             System.exit(0);
         }
 
+        try {
+            decoder = CodecRegistry.loadDecoder(decoderClassname);
+            encoder = CodecRegistry.loadEncoder(encoderClassname);
+            binaryDecoder = CodecRegistry.loadBinaryDecoder(options
+                    .get("binary-decoder"));
+            binaryEncoder = CodecRegistry.loadBinaryEncoder(options
+                    .get("binary-encoder"));
+        } catch (IllegalArgumentException e) {
+            exit(e.getMessage());
+        }
+
+        // one connection per client id, so only the single consumer connection
+        if (isConsumer && options.containsKey("client-id")) {
+            uri = appendConnectionOption(uri, "jms.clientID",
+                    options.get("client-id"));
+        }
+        if (options.containsKey("durable")
+                && (options.containsKey("group") || longOption(options,
+                        "consumers", 1) > 1)) {
+            exit("--durable=" + options.get("durable")
+                    + ". A durable subscription has a single subscriber;"
+                    + " use --group to load balance a topic.");
+        }
+        if ((options.containsKey("durable") || options.containsKey("group"))
+                && options.containsKey("destination-prefetch")) {
+            exit("--destination-prefetch="
+                    + options.get("destination-prefetch")
+                    + ". Cannot be combined with --durable or --group;"
+                    + " use --prefetch.");
+        }
+        if ((options.containsKey("durable") || options.containsKey("group"))
+                && destination.startsWith(QUEUE_PREFIX)) {
+            exit(destination + ". --durable and --group consume a topic.");
+        }
+
+        AcknowledgeMode acknowledgeMode = AcknowledgeMode.AUTO;
+        if (options.containsKey("ack")) {
+            try {
+                acknowledgeMode = AcknowledgeMode.valueOf(options.get("ack")
+                        .toUpperCase());
+            } catch (IllegalArgumentException e) {
+                exit("--ack=" + options.get("ack"));
+            }
+        }
+        // CLIENT would also settle messages still queued for handler threads
+        if (AcknowledgeMode.CLIENT == acknowledgeMode && isConsumer
+                && null != message && !options.containsKey("output")) {
+            System.out
+                    .println("--ack=client acknowledges individually when listening");
+            acknowledgeMode = AcknowledgeMode.INDIVIDUAL;
+        }
+
+        if (options.containsKey("latency")) {
+            stampSendTime = true;
+            if (isConsumer) {
+                latencyRecorder = new LatencyRecorder(longOption(options,
+                        "latency", 0) * 1000L);
+            }
+        }
+
+        if (isConsumer && !options.containsKey("output")
+                && longOption(options, "flush", 0) >= 0) {
+            try {
+                output = new AsyncOutput(options.containsKey("log") ? Paths
+                        .get(options.get("log")) : null, longOption(options,
+                        "flush", AsyncOutput.DEFAULT_FLUSH_INTERVAL));
+            } catch (IOException e) {
+                exit("--log=" + options.get("log") + ". " + e.getMessage());
+            }
+        }
+
+        if (isConsumer && options.containsKey("journal")) {
+            try {
+                journal = new JournalWriter(Paths.get(options.get("journal")));
+            } catch (IOException e) {
+                exit("--journal=" + options.get("journal") + ". "
+                        + e.getMessage());
+            }
+        }
+        if (isReplay && !options.containsKey("input")) {
+            exit("--input is required in replay mode.");
+        }
+
         final AtomicBoolean shutdown = new AtomicBoolean(false);
         final CountDownLatch latch = new CountDownLatch(1);
 
@@ -133,12 +285,113 @@ public class Main {
         Broker broker = null;
 
         try {
+            if (isLoad) {
+                LoadGenerator generator = new LoadGenerator(uri, username,
+                        password, destination, message, (int) longOption(
+                                options, "size", DEFAULT_PAYLOAD_SIZE),
+                        doubleOption(options, "rate", 0),
+                        longOption(options, "count", 0),
+                        longOption(options, "duration", 0) * 1000L,
+                        (int) longOption(options, "threads",
+                                DEFAULT_LOAD_THREADS), (int) longOption(
+                                options, "connections",
+                                DEFAULT_LOAD_CONNECTIONS));
+                generator.run(shutdown);
+                return;
+            }
+
+            if (isFile) {
+                if (!options.containsKey("input")) {
+                    exit("--input is required in file mode.");
+                }
+                FileProducer fileProducer = new FileProducer(uri, username,
+                        password, destination,
+                        Paths.get(options.get("input")), delimiterOption(
+                                options, "delimiter", (byte) '\n'),
+                        (int) longOption(options, "threads",
+                                DEFAULT_LOAD_THREADS));
+                try {
+                    fileProducer.run(shutdown);
+                } catch (IOException e) {
+                    System.err.println("Error while reading "
+                            + options.get("input") + ".");
+                    System.err.println(e.getMessage());
+                }
+                return;
+            }
+
             System.out.println("Attempting to create broker with uri: " + uri
                     + ", un:" + username + " pw:" + password);
-            broker = BrokerFactory.newBrokerInstance(username, password, uri);
+            broker = BrokerFactory.newBrokerInstance(
+                    new SimpleBrokerClientStrategy(acknowledgeMode, longOption(
+                            options, "ack-timeout",
+                            AcknowledgeMode.DEFAULT_OPTIMIZE_ACKNOWLEDGE_TIMEOUT)),
+                    username, password, uri,
+                    options.containsKey("prefetch") ? BrokerFactory
+                            .prefetchPolicy((int) longOption(options,
+                                    "prefetch", 0)) : null);
+
+            Destination jmsDestination;
+            String topic = (destination.startsWith(TOPIC_PREFIX) ? destination
+                    .substring(TOPIC_PREFIX.length()) : destination);
+            if (options.containsKey("group")) {
+                // producers publish to the virtual topic, the group consumes its queue
+                jmsDestination = (isConsumer ? broker.getVirtualTopicQueue(
+                        topic, options.get("group")) : broker
+                        .getVirtualTopic(topic));
+            } else if (options.containsKey("durable")) {
+                jmsDestination = broker.getTopic(topic);
+            } else if (options.containsKey("destination-prefetch")) {
+                jmsDestination = broker.getDestination(destination,
+                        (int) longOption(options, "destination-prefetch", 0));
+            } else {
+                jmsDestination = broker.getDestination(destination);
+            }
 
             if (isConsumer) {
-                if (null != message) {
+                if (options.containsKey("output")) {
+                    System.out.println();
+                    System.out
+                            .println("Creating blob consumer on destination with uri: "
+                                    + uri + ", writing to "
+                                    + options.get("output") + "...");
+                    System.out.println();
+
+                    BlobConsumer blobConsumer;
+                    try {
+                        blobConsumer = broker.getBlobConsumer(jmsDestination,
+                                new DirectoryBlobSink(Paths.get(options
+                                        .get("output"))), (int) longOption(
+                                        options, "threads",
+                                        DEFAULT_DOWNLOAD_THREADS),
+                                (int) longOption(options, "buffer-size",
+                                        DEFAULT_DOWNLOAD_BUFFER_SIZE));
+                    } catch (IOException e) {
+                        exit("--output=" + options.get("output") + ". "
+                                + e.getMessage());
+                        return;
+                    }
+
+                    long lastBytes = 0;
+                    while (!shutdown.get()) {
+                        try {
+                            Thread.sleep(1000L);
+                        } catch (InterruptedException e) {
+                            System.err
+                                    .println("Interrupted. " + e.getMessage());
+                        }
+                        long bytes = blobConsumer.getByteCount();
+                        System.out.printf(
+                                "files:%d failed:%d active:%d %.1f MB/s%n",
+                                blobConsumer.getCompletedCount(),
+                                blobConsumer.getFailedCount(),
+                                blobConsumer.getActiveCount(),
+                                (bytes - lastBytes) / 1e6);
+                        lastBytes = bytes;
+                    }
+                    blobConsumer.close();
+
+                } else if (null != message) {
                     System.out.println();
                     System.out
                             .println("Creating async consumer on destination with uri: "
@@ -146,8 +399,16 @@ public class Main {
                     System.out.println();
 
                     MessageHandler handler = new MainMessageHandler(message);
-                    MessageConsumer consumer = broker.getListeningConsumer(
-                            broker.getDestination(destination), handler);
+                    int consumers = (int) longOption(options, "consumers", 1);
+                    if (options.containsKey("durable")) {
+                        broker.getListeningDurableSubscriber(jmsDestination,
+                                options.get("durable"), handler);
+                    } else if (consumers > 1) {
+                        broker.getListeningConsumers(jmsDestination, handler,
+                                consumers);
+                    } else {
+                        broker.getListeningConsumer(jmsDestination, handler);
+                    }
 
                     while (!shutdown.get()) {
 
@@ -166,15 +427,24 @@ public class Main {
                                     + uri + "...");
                     System.out.println();
 
-                    MessageConsumer consumer = broker.getConsumer(broker
-                            .getDestination(destination));
+                    MessageConsumer consumer = (options.containsKey("durable") ? broker
+                            .getDurableSubscriber(jmsDestination,
+                                    options.get("durable")) : broker
+                            .getConsumer(jmsDestination));
 
                     while (!shutdown.get()) {
 
                         Message msg = consumer.receive(1000L);
+                        long received = LatencyRecorder.now();
                         printMessage(msg, null);
-
                         if (null != msg) {
+                            acknowledgeMode.acknowledge(msg);
+                        }
+
+                        if (null != msg && null != latencyRecorder) {
+                            latencyRecorder.record(msg, received,
+                                    LatencyRecorder.now());
+                        } else if (null != msg) {
                             try {
                                 Thread.sleep(1000L);
                             } catch (InterruptedException e) {
@@ -185,6 +455,18 @@ public class Main {
                     }
                 }
 
+            } else if (isReplay) {
+                JournalReplayer replayer = new JournalReplayer(broker,
+                        destination, Paths.get(options.get("input")),
+                        doubleOption(options, "speed", 1), stampSendTime);
+                try {
+                    replayer.run(shutdown);
+                } catch (IOException e) {
+                    System.err.println("Error while reading "
+                            + options.get("input") + ".");
+                    System.err.println(e.getMessage());
+                }
+
             } else {// is producer
                 System.out.println();
                 System.out
@@ -192,14 +474,31 @@ public class Main {
                                 + uri + "...");
                 System.out.println();
 
-                MessageProducer producer = broker.getProducer(broker
-                        .getDestination(destination));
-
-                // TODO do something with the messageEncoder
+                String fanOut = options.get("fan-out");
+                if (null != fanOut && !"composite".equals(fanOut)
+                        && !"parallel".equals(fanOut)) {
+                    exit("--fan-out=" + fanOut);
+                }
+                List<String> queues = Arrays.asList(destination.split(","));
+                MessageProducer producer = (null == fanOut ? broker
+                        .getProducer(jmsDestination) : null);
 
                 int count = 0;
                 while (!shutdown.get()) {
-                    sendMessage(message, broker, producer);
+                    if ("composite".equals(fanOut)) {
+                        printFanOut(broker.fanOut(queues,
+                                encodeMessage(message, broker),
+                                DEFAULT_FAN_OUT_TIMEOUT), count);
+                    } else if ("parallel".equals(fanOut)) {
+                        Map<String, Message> messages = new LinkedHashMap<String, Message>();
+                        for (String queue : queues) {
+                            messages.put(queue, encodeMessage(message, broker));
+                        }
+                        printFanOut(broker.fanOut(messages,
+                                DEFAULT_FAN_OUT_TIMEOUT), count);
+                    } else {
+                        sendMessage(message, broker, producer);
+                    }
 
                     System.out.println("Sent "
                             + (encoderClassname == null ? "text" : "encoded")
@@ -217,6 +516,21 @@ public class Main {
         } finally {
             if (null != broker)
                 broker.close();
+            if (null != latencyRecorder)
+                latencyRecorder.close();
+            if (null != output)
+                output.close();
+            if (null != journal) {
+                try {
+                    journal.close();
+                    System.out.println("Journaled " + journal.getWrittenCount()
+                            + " messages to " + journal.getFile() + ".");
+                } catch (IOException e) {
+                    System.err.println("Error while closing journal "
+                            + journal.getFile() + ".");
+                    System.err.println(e.getMessage());
+                }
+            }
             System.out.println("Shutdown complete.");
             latch.countDown();
         }
@@ -225,14 +539,57 @@ public class Main {
 
     public static void usage() {
         System.out
-                .println("[producer|consumer (c/p)] [url] [destinationName] -u(username) -p(password) -m(message) -d(decoder pkg.class) -e(encoder pkg.class)");
+                .println("[producer|consumer|load|file|replay (c/p/l/f/r)] [url] [destinationName] -u(username) -p(password) -m(message) -d(decoder pkg.class) -e(encoder pkg.class)");
         System.out.println("The first 3 arguments are mandatory.");
+        System.out
+                .println("load options: --rate=(msg/s, 0 for max) --count=(messages) --duration=(seconds)"
+                        + " --threads=(n) --connections=(n) --size=(payload chars, unless -m is given)");
+        System.out
+                .println("file options: --input=(directory: a message per file, file: a message per record)"
+                        + " --delimiter=(record delimiter, default \\n) --threads=(n)");
+        System.out
+                .println("consumer options: --output=(directory to stream BlobMessage and BytesMessage payloads to)"
+                        + " --threads=(concurrent downloads) --buffer-size=(bytes per download)");
+        System.out
+                .println("--latency=(report seconds): producers stamp the send time, consumers report"
+                        + " p50/p99/p99.9/max latencies and do not pause between messages.");
+        System.out
+                .println("consumer --journal=(file to record messages to), replay options: --input=(journal)"
+                        + " --speed=(multiple of the recorded rate, default 1, 0 for max)");
+        System.out
+                .println("producer --fan-out=(composite|parallel): send to every queue of a comma separated"
+                        + " destinationName with one composite send, or with a send per queue, and report"
+                        + " failed queues.");
+        System.out
+                .println("topics: destinationName topic://(name) --durable=(subscription, needs --client-id=(id))"
+                        + " --group=(consumer group of the virtual topic destinationName)"
+                        + " --consumers=(competing async consumers, each on its own session)");
+        System.out
+                .println("consumer output: --log=(file to append messages to, default stdout)"
+                        + " --flush=(ms between writes, default 1000, 0 when idle, -1 prints synchronously)");
+        System.out
+                .println("--prefetch=(n): prefetch of all consumers of the connection,"
+                        + " --destination-prefetch=(n): prefetch of the consumer of this destination only.");
+        System.out
+                .println("--ack=(auto|dups_ok|client|individual|optimized) --ack-timeout=(optimized ack timeout ms)");
         System.out
                 .println("If you want to read your message, implement the com.example.amq.main.MessageDecoder"
                         + " interface and place the impl in this directory.");
         System.out
                 .println("If you want to encrypt your message, implement the com.example.amq.main.MessageEncoder"
                         + " interface and place the impl in this directory.");
+        System.out
+                .println("Encoders and decoders registered in META-INF/services can be"
+                        + " named by their simple class name.");
+        System.out
+                .println("Built in: -eDeflateMessageEncoder -dDeflateMessageDecoder deflate bodies of"
+                        + " -Damq.compression.threshold=(bytes, default 1024) or more"
+                        + " at -Damq.compression.level=(0-9, default 1).");
+        System.out
+                .println("--binary-encoder=(pkg.class) --binary-decoder=(pkg.class): implement"
+                        + " com.example.amq.main.BinaryMessageEncoder/BinaryMessageDecoder to send and"
+                        + " print raw bytes instead of Strings. File mode sends records through the"
+                        + " binary encoder, or as plain BytesMessages without one.");
     }
 
     public static void exit(String param) {
@@ -241,6 +598,66 @@ public class Main {
         System.exit(0);
     }
 
+    /**
+     * Adds a connection option to the query of the outer URI. The query of a
+     * composite URI such as failover:(tcp://a?x=1,tcp://b) follows its closing
+     * parenthesis; the queries inside belong to the nested transports.
+     */
+    private static String appendConnectionOption(String uri, String name,
+            String value) {
+        int outer = uri.lastIndexOf(')') + 1;
+        return uri + (uri.indexOf('?', outer) < 0 ? "?" : "&") + name + "="
+                + value;
+    }
+
+    private static long longOption(Map<String, String> options, String name,
+            long defaultValue) {
+        String value = options.get(name);
+        if (null == value)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            exit("--" + name + "=" + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns a single character, or one of the escapes \n, \t, \0, as a byte
+     */
+    private static byte delimiterOption(Map<String, String> options,
+            String name, byte defaultValue) {
+        String value = options.get(name);
+        if (null == value)
+            return defaultValue;
+        switch (value) {
+        case "\\n":
+            return '\n';
+        case "\\t":
+            return '\t';
+        case "\\0":
+            return 0;
+        default:
+            if (1 != value.length() || value.charAt(0) > 0xff)
+                exit("--" + name + "=" + value);
+            return (byte) value.charAt(0);
+        }
+    }
+
+    private static double doubleOption(Map<String, String> options,
+            String name, double defaultValue) {
+        String value = options.get(name);
+        if (null == value)
+            return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            exit("--" + name + "=" + value);
+            return defaultValue;
+        }
+    }
+
     private static class MainMessageHandler implements MessageHandler {
 
         private String messagePrefix;
@@ -251,8 +668,14 @@ public class Main {
 
         @Override
         public void handleMessage(Message message) {
+            long received = LatencyRecorder.now();
 
             printMessage(message, messagePrefix);
+
+            LatencyRecorder recorder = latencyRecorder;
+            if (null != recorder) {
+                recorder.record(message, received, LatencyRecorder.now());
+            }
         }
 
     }
@@ -264,6 +687,16 @@ public class Main {
         if (null == message)
             return;
 
+        JournalWriter journalWriter = journal;
+        if (null != journalWriter) {
+            try {
+                journalWriter.append(message, LatencyRecorder.now());
+            } catch (JMSException | IOException e) {
+                System.err.println("Error while attempting to journal message.");
+                System.err.println(e.getMessage());
+            }
+        }
+
         String id = "";
         String type = "";
         Long timestamp = null;
@@ -307,117 +740,164 @@ public class Main {
             System.err.println(e.getMessage());
         }
 
-        if (null != decoderClassname) {
-            Class<?> clazz = null;
+        ByteBuffer binaryContent = null;
+        if (null != binaryDecoder) {
             try {
-                clazz = Class.forName(decoderClassname);
-            } catch (ClassNotFoundException e) {
+                binaryContent = binaryDecoder.decode(message,
+                        decodeBuffer.get());
+                decodeBuffer.set(binaryContent);
+            } catch (JMSException e) {
                 System.err
-                        .println("Error while attempting to retrieve decoder class "
+                        .println("Error while attempting to decode message with binary decoder class "
+                                + binaryDecoder.getClass().getName() + ".");
+                System.err.println(e.getMessage());
+            }
+        } else if (null != decoder) {
+            try {
+                messageContent = decoder.decode(message);
+            } catch (JMSException e) {
+                System.err
+                        .println("Error while attempting to decode message with decoder class "
                                 + decoderClassname + ".");
                 System.err.println(e.getMessage());
             }
+        }
 
-            Object decoderObject = null;
-            if (null != clazz) {
-                try {
-                    decoderObject = clazz.newInstance();
-                } catch (InstantiationException | IllegalAccessException e) {
-                    System.err.println("Error while attempting to reflect "
-                            + decoderClassname + ".");
-                    System.err.println(e.getMessage());
-                }
-            }
+        String header = String.format("%s#:%03d id:%s type:%s ts:%d exp:%d ",
+                (null != messagePrefix ? messagePrefix : ""),
+                count.getAndIncrement(), id, type, timestamp, expiration);
 
-            MessageDecoder decoder = null;
-            if (null != decoderObject) {
-                try {
-                    decoder = (MessageDecoder) decoderObject;
-                } catch (ClassCastException e) {
-                    System.err.println(decoderClassname
-                            + " does not implement interface MessageDecoder.");
-                    System.err.println(e.getMessage());
-                }
+        AsyncOutput out = output;
+        if (null == out) {
+            System.out.println(header);
+            if (null != messageContent) {
+                System.out.println(messageContent);
             }
-
-            if (null != decoder) {
-                try {
-                    messageContent = decoder.decode(message);
-                } catch (JMSException e) {
-                    System.err
-                            .println("Error while attempting to decode message with decoder class "
-                                    + decoderClassname + ".");
-                    System.err.println(e.getMessage());
-                }
+            if (null != binaryContent) {
+                printBytes(binaryContent);
             }
+        } else if (null != binaryContent) {
+            // one record, so lines of concurrent handlers do not interleave
+            byte[] headerLine = (header + System.lineSeparator())
+                    .getBytes(StandardCharsets.UTF_8);
+            byte[] record = new byte[headerLine.length
+                    + binaryContent.remaining()];
+            System.arraycopy(headerLine, 0, record, 0, headerLine.length);
+            binaryContent.duplicate().get(record, headerLine.length,
+                    binaryContent.remaining());
+            out.println(record);
+        } else if (null != messageContent) {
+            out.println(header + System.lineSeparator() + messageContent);
+        } else {
+            out.println(header);
         }
-
-        if (null != messagePrefix)
-            System.out.print(messagePrefix);
-        ;
-        System.out.printf("#:%03d id:%s type:%s ts:%d exp:%d \n",
-                count.intValue(), id, type, timestamp, expiration);
-        if (null != messageContent) {
-            System.out.println(messageContent);
-        }
-
-        count.incrementAndGet();
     }
 
     /**
      * Sends a message to a broker using a MessageProducer, delegating to the encoder if specified.
      */
-    private static void sendMessage(String message, Broker broker,
+    static void sendMessage(String message, Broker broker,
+            MessageProducer producer) throws JMSException {
+        producer.send(encodeMessage(message, broker));
+    }
+
+    /**
+     * Sends the remaining bytes of payload to a broker using a
+     * MessageProducer, delegating to the binary encoder if specified and
+     * sending a BytesMessage otherwise. The position of payload is left
+     * unchanged.
+     */
+    static void sendMessage(ByteBuffer payload, Broker broker,
             MessageProducer producer) throws JMSException {
+        producer.send(encodeMessage(payload, broker));
+    }
+
+    /**
+     * Creates the message sendMessage sends, stamped with the send time if
+     * latencies are measured. Returns null if the encoder fails.
+     */
+    static Message encodeMessage(String message, Broker broker)
+            throws JMSException {
+        if (null != binaryEncoder) {
+            return encodeMessage(
+                    ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)),
+                    broker);
+        }
+
         Message m = null;
 
-        if (null != encoderClassname) {
-            Class<?> clazz = null;
+        if (null != encoder) {
             try {
-                clazz = Class.forName(encoderClassname);
-            } catch (ClassNotFoundException e) {
+                m = encoder.encode(message, broker);
+            } catch (JMSException e) {
                 System.err
-                        .println("Error while attempting to retrieve encoder class "
+                        .println("Error while attempting to encode message with encoder class "
                                 + encoderClassname + ".");
                 System.err.println(e.getMessage());
             }
+        } else {
+            m = broker.createTextMessage();
+            ((TextMessage) m).setText(message);
+        }
+        if (stampSendTime && null != m) {
+            LatencyRecorder.stamp(m);
+        }
+        return m;
+    }
 
-            Object encoderObject = null;
-            if (null != clazz) {
-                try {
-                    encoderObject = clazz.newInstance();
-                } catch (InstantiationException | IllegalAccessException e) {
-                    System.err.println("Error while attempting to reflect "
-                            + encoderClassname + ".");
-                    System.err.println(e.getMessage());
-                }
-            }
+    /**
+     * Creates the message sendMessage sends for a binary payload. Returns null
+     * if the binary encoder fails.
+     */
+    static Message encodeMessage(ByteBuffer payload, Broker broker)
+            throws JMSException {
+        Message m = null;
 
-            MessageEncoder encoder = null;
-            if (null != encoderObject) {
-                try {
-                    encoder = (MessageEncoder) encoderObject;
-                } catch (ClassCastException e) {
-                    System.err.println(encoderClassname
-                            + " does not implement interface MessageEncoder.");
-                    System.err.println(e.getMessage());
-                }
+        if (null != binaryEncoder) {
+            try {
+                m = binaryEncoder.encode(payload, broker);
+            } catch (JMSException e) {
+                System.err
+                        .println("Error while attempting to encode message with binary encoder class "
+                                + binaryEncoder.getClass().getName() + ".");
+                System.err.println(e.getMessage());
             }
+        } else {
+            m = broker.createBytesMessage(payload);
+        }
+        if (stampSendTime && null != m) {
+            LatencyRecorder.stamp(m);
+        }
+        return m;
+    }
 
-            if (null != encoder) {
-                try {
-                    m = encoder.encode(message, broker);
-                } catch (JMSException e) {
-                    System.err
-                            .println("Error while attempting to encode message with encoder class "
-                                    + encoderClassname + ".");
-                    System.err.println(e.getMessage());
-                }
+    /**
+     * Prints the failed sends of a fan-out
+     */
+    private static void printFanOut(List<FanOutResult> results, int count) {
+        int failed = 0;
+        for (FanOutResult result : results) {
+            if (!result.isSent()) {
+                failed++;
+                System.err.println(result);
             }
+        }
+        System.out.println("Fanned out message " + count + " to "
+                + results.size() + " destinations, " + failed + " failed.");
+    }
+
+    /**
+     * Writes a binary payload to the terminal as is
+     */
+    private static void printBytes(ByteBuffer content) {
+        if (content.hasArray()) {
+            System.out.write(content.array(), content.arrayOffset()
+                    + content.position(), content.remaining());
         } else {
-            m = broker.createTextMessage();
-            ((TextMessage) m).setText(message);
+            byte[] bytes = new byte[content.remaining()];
+            content.duplicate().get(bytes);
+            System.out.write(bytes, 0, bytes.length);
         }
-        producer.send(m);
+        System.out.println();
     }
 }
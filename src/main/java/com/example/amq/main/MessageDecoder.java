@@ -4,7 +4,8 @@ import javax.jms.JMSException;
 import javax.jms.Message;
 
 /**
- * Decodes a JMS message into a String
+ * Decodes a JMS message into a String. A single instance is created at startup
+ * and shared by all handler threads, so implementations must be thread-safe.
  * @author mshin
  *
  */
@@ -7,7 +7,8 @@ import com.example.amq.client.Broker;
 
 /**
  * Encodes a String to a JMS message. Needs access to the broker for
- * instantiating empty Messages.
+ * instantiating empty Messages. A single instance is created at startup and
+ * reused for every message, so implementations must be thread-safe.
  * 
  * @author Ian McMahon
  *